@@ -0,0 +1,82 @@
+package com.kt.vd.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.result.TermCount;
+import com.kt.vd.sell.SellController;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merged counts to response, and response to HTTP body
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Map<Object, Long> drinkCounts;
+    private Map<Object, Long> hourCounts;
+    private Map<Object, Map<Object, Long>> locationCounts;
+    private List<Map<String, Object>> drinkMaps;
+    private List<Map<String, Object>> drinkTermCounts;
+
+    @Setup
+    public void setup(){
+        drinkCounts = Fixtures.drinkCounts();
+        hourCounts = Fixtures.hourCounts();
+        locationCounts = Fixtures.locationCounts();
+        drinkMaps = Fixtures.drinkMaps();
+        drinkTermCounts = Fixtures.drinkTermCounts();
+    }
+
+
+    @Benchmark
+    public List<Map<String, Object>> drinkResponse(){
+        return TermCount.fromEntries("drink_type", "sell", DailyAggregator.orderByCount(drinkCounts, Fixtures.drinks));
+    }
+
+    /**
+     * Previous conversion, one HashMap per bucket
+     */
+    @Benchmark
+    public List<Map<String, Object>> drinkResponseHashMap(){
+        List<Map<String, Object>> responseData = new ArrayList<>();
+        for (Map.Entry<Object, Long> entry : DailyAggregator.orderByCount(drinkCounts, Fixtures.drinks)) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("drink_type", entry.getKey());
+            data.put("sell", entry.getValue());
+            responseData.add(data);
+        }
+        return responseData;
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> hourResponse(){
+        return TermCount.fromEntries("hour", "count", DailyAggregator.orderByKey(hourCounts, Fixtures.hours));
+    }
+
+    @Benchmark
+    public List<Map<String, List<Map<String, Object>>>> locationResponse(){
+        return SellController.toSellByLoc(locationCounts);
+    }
+
+
+    @Benchmark
+    public byte[] drinkBody() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(drinkTermCounts);
+    }
+
+    @Benchmark
+    public byte[] drinkBodyHashMap() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(drinkMaps);
+    }
+}
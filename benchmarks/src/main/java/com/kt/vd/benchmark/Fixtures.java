@@ -0,0 +1,133 @@
+package com.kt.vd.benchmark;
+
+import com.kt.vd.result.TermCount;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+/**
+ * Payloads shaped like production requests and cache values
+ */
+final class Fixtures {
+
+    static final LocalDate end = LocalDate.of(2018, 6, 30);
+    static final LocalDate start = end.minusDays(364);
+
+    static final int drinks = 50;
+    static final int hours = 24;
+    static final int locations = 10;
+    static final int lanes = 4;
+    static final int hits = 60;
+
+    private Fixtures() {
+    }
+
+
+    /**
+     * Daily index names of every day between start and end
+     */
+    static Set<String> catalog(String index, LocalDate start, LocalDate end){
+        Set<String> catalog = new HashSet<>();
+        for(LocalDate day = start; !day.isAfter(end); day = day.plusDays(1))
+            catalog.add(index + day.toString());
+        return catalog;
+    }
+
+    /**
+     * Merged counts of a 50 drink terms aggregation
+     */
+    static Map<Object, Long> drinkCounts(){
+        Random random = new Random(drinks);
+        Map<Object, Long> counts = new HashMap<>();
+        for (int i = 0; i < drinks; i++)
+            counts.put("drink-" + i, (long) random.nextInt(10000));
+        return counts;
+    }
+
+    static Map<Object, Long> hourCounts(){
+        Random random = new Random(hours);
+        Map<Object, Long> counts = new HashMap<>();
+        for (int i = 0; i < hours; i++)
+            counts.put((long) i, (long) random.nextInt(10000));
+        return counts;
+    }
+
+    /**
+     * Merged counts of location -> drink
+     */
+    static Map<Object, Map<Object, Long>> locationCounts(){
+        Random random = new Random(locations);
+        Map<Object, Map<Object, Long>> counts = new HashMap<>();
+        for (int i = 0; i < locations; i++) {
+            Map<Object, Long> drinkCounts = new HashMap<>();
+            for (int j = 0; j < drinks; j++)
+                drinkCounts.put("drink-" + j, (long) random.nextInt(1000));
+            counts.put("municipality-" + i, drinkCounts);
+        }
+        return counts;
+    }
+
+
+    /**
+     * sell response as cached before TermCount, one HashMap per bucket
+     */
+    static List<Map<String, Object>> drinkMaps(){
+        List<Map<String, Object>> responseData = new ArrayList<>();
+        for (Map.Entry<Object, Long> entry : drinkCounts().entrySet()) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("drink_type", entry.getKey());
+            data.put("sell", entry.getValue());
+            responseData.add(data);
+        }
+        return responseData;
+    }
+
+    static List<Map<String, Object>> drinkTermCounts(){
+        return TermCount.fromEntries("drink_type", "sell", new ArrayList<>(drinkCounts().entrySet()));
+    }
+
+    /**
+     * sell:loc response (JsonListsResult shape)
+     */
+    static List<Map<String, List<Map<String, Object>>>> locationMaps(){
+        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
+        for (Map.Entry<Object, Map<Object, Long>> location : locationCounts().entrySet()) {
+            List<Map<String, Object>> subData = new ArrayList<>();
+            location.getValue().entrySet().stream().limit(locations).forEach(entry -> {
+                Map<String, Object> data = new HashMap<>();
+                data.put("drink", entry.getKey());
+                data.put("count", entry.getValue());
+                subData.add(data);
+            });
+            Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
+            mainData.put(location.getKey().toString(), subData);
+            responseData.add(mainData);
+        }
+        return responseData;
+    }
+
+    /**
+     * Multi lane temperature response, 60 top_hits per lane
+     */
+    static List<Map<String, List<Map<String, Object>>>> laneMaps(){
+        Random random = new Random(hits);
+        LocalDateTime now = LocalDateTime.of(end, LocalTime.NOON);
+
+        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
+        for (int i = 0; i < lanes; i++) {
+            List<Map<String, Object>> subData = new ArrayList<>();
+            for (int j = 0; j < hits; j++) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("date", now.minusSeconds(j * 10L).toString());
+                data.put("degree", 4 + random.nextDouble() * 3);
+                subData.add(data);
+            }
+            Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
+            mainData.put("data", subData);
+            responseData.add(mainData);
+        }
+        return responseData;
+    }
+}
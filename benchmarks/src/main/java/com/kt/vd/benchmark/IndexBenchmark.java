@@ -0,0 +1,54 @@
+package com.kt.vd.benchmark;
+
+import com.kt.vd.ElasticSearch.IndexManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index list of a one year range, with and without the index catalog
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    private IndexManager indexManager;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        indexManager = new IndexManager();
+
+        Field catalog = IndexManager.class.getDeclaredField("catalog");
+        catalog.setAccessible(true);
+        catalog.set(indexManager, Fixtures.catalog("sell-", Fixtures.start.minusYears(1), Fixtures.end));
+    }
+
+
+    @Benchmark
+    public String[] generateIndex(){
+        return IndexManager.generateIndex("sell-", Fixtures.start, Fixtures.end);
+    }
+
+    /**
+     * Whole months collapse into wildcards
+     */
+    @Benchmark
+    public String[] resolveIndexMonths(){
+        return indexManager.resolveIndex("sell-", Fixtures.start, Fixtures.end);
+    }
+
+    /**
+     * Range not aligned on months, every day is looked up in the catalog
+     */
+    @Benchmark
+    public String[] resolveIndexDays(){
+        LocalDate start = Fixtures.start.plusDays(15);
+        return indexManager.resolveIndex("sell-", start, start.plusDays(27));
+    }
+}
@@ -0,0 +1,45 @@
+package com.kt.vd.benchmark;
+
+import com.kt.vd.Redis.RedisManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis key of a range request, built on every cached endpoint call
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyBenchmark {
+
+    private RedisManager redisManager;
+    private String start;
+    private String end;
+
+    @Setup
+    public void setup(){
+        redisManager = new RedisManager();
+        start = Fixtures.start.toString();
+        end = Fixtures.end.toString();
+    }
+
+    @TearDown
+    public void tearDown(){
+        redisManager.shutdown();
+    }
+
+
+    @Benchmark
+    public String generateRedisKey(){
+        return redisManager.generateRedisKey("sell", "user-1", "machine-1", start, end);
+    }
+
+    @Benchmark
+    public String generateRedisKeyWithDates(){
+        return redisManager.generateRedisKey("sell", "user-1", "machine-1", Fixtures.start.toString(), Fixtures.end.toString());
+    }
+}
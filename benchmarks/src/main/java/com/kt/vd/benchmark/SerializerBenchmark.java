@@ -0,0 +1,63 @@
+package com.kt.vd.benchmark;
+
+import com.kt.vd.Redis.CompactRedisSerializer;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis value codec round trip of cached responses
+ *
+ * json : GenericJackson2JsonRedisSerializer (with @class type info), compact : CompactRedisSerializer
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+    @Param({"json", "compact"})
+    public String codec;
+
+    /**
+     * drinks : 50 drink buckets, locations : sell:loc lists, lanes : 60 top_hits per lane
+     */
+    @Param({"drinks", "locations", "lanes"})
+    public String payload;
+
+    private RedisSerializer<Object> serializer;
+    private Object value;
+    private byte[] serialized;
+
+    @Setup
+    public void setup(){
+        serializer = "json".equals(codec) ? new GenericJackson2JsonRedisSerializer() : new CompactRedisSerializer(1024);
+
+        switch (payload) {
+            case "drinks":
+                value = Fixtures.drinkMaps();
+                break;
+            case "locations":
+                value = Fixtures.locationMaps();
+                break;
+            default:
+                value = Fixtures.laneMaps();
+        }
+        serialized = serializer.serialize(value);
+    }
+
+
+    @Benchmark
+    public byte[] serialize(){
+        return serializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object deserialize(){
+        return serializer.deserialize(serialized);
+    }
+}
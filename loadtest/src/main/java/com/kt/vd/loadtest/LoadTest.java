@@ -0,0 +1,71 @@
+package com.kt.vd.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entry point of the load test
+ *
+ * seed   : writes synthetic daily sell-, visit-, temperature- and humidity- indices
+ * replay : sends a recorded request mix at a fixed rate and reports latency percentiles and cache hit ratios
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0) {
+            usage();
+            return;
+        }
+
+        Options options = Options.parse(args);
+        switch (args[0]) {
+            case "seed":
+                new Seeder(options).seed();
+                break;
+            case "replay":
+                new Replayer(options).replay();
+                break;
+            default:
+                usage();
+                System.exit(1);
+        }
+    }
+
+    private static void usage(){
+        System.out.println("seed   [-es http://localhost:9200] [-days 30] [-users 5] [-machines 5] [-docs 2000] [-seed 1]");
+        System.out.println("replay -mix mix.txt [-target http://localhost:8080/logs] [-rate 100] [-duration 60] [-warmup 10]");
+        System.out.println("       [-concurrency 64] [-timeout 10000] [-feed true] [-es http://localhost:9200]");
+    }
+
+
+    /**
+     * "-name value" pairs after the command
+     */
+    static class Options {
+        private final Map<String, String> values = new HashMap<>();
+
+        static Options parse(String[] args){
+            Options options = new Options();
+            for (int i = 1; i + 1 < args.length; i += 2) {
+                if(!args[i].startsWith("-"))
+                    throw new IllegalArgumentException("Expected an option name : " + args[i]);
+                options.values.put(args[i].substring(1), args[i + 1]);
+            }
+            return options;
+        }
+
+        String get(String name, String defaultValue){
+            return values.getOrDefault(name, defaultValue);
+        }
+
+        int getInt(String name, int defaultValue){
+            String value = values.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+
+        boolean getBoolean(String name, boolean defaultValue){
+            String value = values.get(name);
+            return value == null ? defaultValue : Boolean.parseBoolean(value);
+        }
+    }
+}
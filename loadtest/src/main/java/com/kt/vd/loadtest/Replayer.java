@@ -0,0 +1,217 @@
+package com.kt.vd.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends the recorded mix in order, looping, at a fixed rate
+ *
+ * Requests are started on schedule whether or not earlier ones have completed, and latency is measured
+ * from the scheduled start, so a slow server shows up in the percentiles instead of lowering the rate.
+ */
+class Replayer {
+
+    private static final Pattern datePattern = Pattern.compile("\\{today(?:-(\\d+))?}");
+    private static final Pattern labelPattern = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+    private static final Set<String> literalSegments = new HashSet<>(Arrays.asList(
+            "sell", "visit", "temperature", "humidity", "dashboard", "time", "drink", "loc", "all", "init", "stream"));
+
+    static class Request {
+        final String method;
+        final String path;
+        final String body;
+        final String label;
+
+        Request(String method, String path, String body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.label = method + " " + labelOf(path);
+        }
+    }
+
+    private final String target;
+    private final String mix;
+    private final int rate;
+    private final int duration;
+    private final int warmup;
+    private final int concurrency;
+    private final int timeout;
+    private final boolean feed;
+    private final Seeder seeder;
+
+    Replayer(LoadTest.Options options) {
+        this.target = options.get("target", "http://localhost:8080/logs");
+        this.mix = options.get("mix", "mix.txt");
+        this.rate = options.getInt("rate", 100);
+        this.duration = options.getInt("duration", 60);
+        this.warmup = options.getInt("warmup", 10);
+        this.concurrency = options.getInt("concurrency", 64);
+        this.timeout = options.getInt("timeout", 10000);
+        this.feed = options.getBoolean("feed", true);
+        this.seeder = new Seeder(options);
+    }
+
+
+    void replay() throws IOException, InterruptedException {
+        List<Request> requests = load(mix);
+        if(requests.isEmpty())
+            throw new IllegalArgumentException("No request in " + mix);
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        ScheduledExecutorService feeder = Executors.newSingleThreadScheduledExecutor();
+        if(feed) {
+            feeder.scheduleWithFixedDelay(() -> {
+                try {
+                    seeder.feed(LocalDateTime.now());
+                } catch (IOException e) {
+                    System.err.println("Sensor feed failed : " + e.getMessage());
+                }
+            }, 0, 5, TimeUnit.SECONDS);
+        }
+
+        try {
+            if(warmup > 0) {
+                System.out.println("Warming up for " + warmup + "s");
+                run(requests, workers, warmup, null);
+            }
+
+            Map<String, Double> before = cacheCounters();
+            Report report = new Report();
+            System.out.println("Replaying " + requests.size() + " requests at " + rate + "/s for " + duration + "s");
+            long elapsed = run(requests, workers, duration, report);
+            Map<String, Double> after = cacheCounters();
+
+            report.print(elapsed, rate);
+            Report.printCacheRatios(before, after);
+        } finally {
+            feeder.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * @param report null while warming up
+     * @return nanoseconds until the last request completed
+     */
+    private long run(List<Request> requests, ExecutorService workers, int seconds, Report report) throws InterruptedException {
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) seconds * rate;
+        List<Future<?>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long scheduled = start + i * period;
+            long wait;
+            while((wait = scheduled - System.nanoTime()) > 0)
+                LockSupport.parkNanos(wait);
+
+            Request request = requests.get((int) (i % requests.size()));
+            futures.add(workers.submit(() -> send(request, scheduled, report)));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                System.err.println("Request failed : " + e.getCause());
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void send(Request request, long scheduled, Report report){
+        int status;
+        try {
+            status = Http.request(request.method, target + request.path, request.body, timeout).status;
+        } catch (IOException e) {
+            status = -1;
+        }
+        if(report != null)
+            report.record(request.label, System.nanoTime() - scheduled, status);
+    }
+
+    /**
+     * statistics.cache.requests counters of the server, keyed by "prefix result"
+     */
+    private Map<String, Double> cacheCounters(){
+        Map<String, Double> counters = new HashMap<>();
+        try {
+            Http.Response response = Http.request("GET", target + "/actuator/prometheus", null, timeout);
+            if(response.status != 200)
+                return counters;
+
+            for (String line : response.body.split("\n")) {
+                if(!line.startsWith("statistics_cache_requests_total{"))
+                    continue;
+
+                Map<String, String> labels = new HashMap<>();
+                Matcher matcher = labelPattern.matcher(line.substring(0, line.lastIndexOf('}')));
+                while(matcher.find())
+                    labels.put(matcher.group(1), matcher.group(2));
+                double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                counters.merge(labels.get("prefix") + " " + labels.get("result"), value, Double::sum);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Reading cache metrics failed : " + e.getMessage());
+        }
+        return counters;
+    }
+
+
+    /**
+     * "METHOD path [body]" per line, blank lines and lines starting with # are skipped
+     */
+    static List<Request> load(String file) throws IOException {
+        LocalDate today = LocalDate.now();
+        List<Request> requests = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] parts = resolveDates(line, today).split("\\s+", 3);
+            if(parts.length < 2)
+                throw new IllegalArgumentException("Invalid mix line : " + line);
+            requests.add(new Request(parts[0], parts[1], parts.length == 3 ? parts[2] : null));
+        }
+        return requests;
+    }
+
+    private static String resolveDates(String line, LocalDate today){
+        Matcher matcher = datePattern.matcher(line);
+        StringBuffer resolved = new StringBuffer();
+        while(matcher.find()) {
+            long days = matcher.group(1) == null ? 0 : Long.parseLong(matcher.group(1));
+            matcher.appendReplacement(resolved, today.minusDays(days).toString());
+        }
+        matcher.appendTail(resolved);
+        return resolved.toString();
+    }
+
+    /**
+     * Path with its variables replaced by {}, requests of the same endpoint are reported together
+     */
+    static String labelOf(String path){
+        int query = path.indexOf('?');
+        String[] segments = (query < 0 ? path : path.substring(0, query)).split("/");
+
+        StringBuilder label = new StringBuilder();
+        for (String segment : segments) {
+            if(segment.isEmpty())
+                continue;
+            label.append('/').append(literalSegments.contains(segment) ? segment : "{}");
+        }
+        return label.toString();
+    }
+}
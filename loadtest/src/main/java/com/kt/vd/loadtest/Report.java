@@ -0,0 +1,116 @@
+package com.kt.vd.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency percentiles per endpoint, and cache hit ratios per key prefix from the server counters
+ */
+class Report {
+
+    private static final double[] percentiles = {0.5, 0.9, 0.99, 0.999};
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+    private final Endpoint all = new Endpoint();
+
+
+    void record(String label, long nanos, int status){
+        endpoints.computeIfAbsent(label, k -> new Endpoint()).record(nanos, status);
+        all.record(nanos, status);
+    }
+
+    void print(long elapsedNanos, int rate){
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.println();
+        System.out.printf("%d requests in %.1fs, %.1f/s (target %d/s), %d errors%n",
+                all.count, seconds, all.count / seconds, rate, all.errors);
+        System.out.println();
+
+        System.out.printf("%-42s %8s %7s %9s %9s %9s %9s %9s%n", "endpoint", "count", "errors", "p50", "p90", "p99", "p99.9", "max");
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet())
+            entry.getValue().print(entry.getKey());
+        all.print("all");
+    }
+
+    /**
+     * Lookups answered by L1 or Redis over all lookups made during the run
+     */
+    static void printCacheRatios(Map<String, Double> before, Map<String, Double> after){
+        if(after.isEmpty()) {
+            System.out.println();
+            System.out.println("No cache metrics, is /actuator/prometheus exposed?");
+            return;
+        }
+
+        Map<String, double[]> prefixes = new TreeMap<>();
+        for (String key : new TreeSet<>(after.keySet())) {
+            String[] parts = key.split(" ", 2);
+            double count = after.get(key) - before.getOrDefault(key, 0.0);
+            double[] counts = prefixes.computeIfAbsent(parts[0], k -> new double[3]);
+            if("l1".equals(parts[1]))
+                counts[0] += count;
+            else if("hit".equals(parts[1]))
+                counts[1] += count;
+            else
+                counts[2] += count;
+        }
+
+        System.out.println();
+        System.out.printf("%-24s %10s %10s %10s %9s%n", "cache prefix", "l1", "redis", "miss", "hit ratio");
+        double[] total = new double[3];
+        for (Map.Entry<String, double[]> entry : prefixes.entrySet()) {
+            printRatio(entry.getKey(), entry.getValue());
+            for (int i = 0; i < total.length; i++)
+                total[i] += entry.getValue()[i];
+        }
+        printRatio("all", total);
+    }
+
+    private static void printRatio(String prefix, double[] counts){
+        double lookups = counts[0] + counts[1] + counts[2];
+        System.out.printf("%-24s %10.0f %10.0f %10.0f %8.1f%%%n", prefix, counts[0], counts[1], counts[2],
+                lookups == 0 ? 0 : (counts[0] + counts[1]) * 100 / lookups);
+    }
+
+
+    static class Endpoint {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+
+        synchronized void record(long nanos, int status){
+            if(count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+            if(status < 200 || status >= 400)
+                errors++;
+        }
+
+        synchronized void print(String label){
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+
+            StringBuilder line = new StringBuilder(String.format("%-42s %8d %7d", label, count, errors));
+            for (double percentile : percentiles)
+                line.append(String.format(" %9s", millis(sorted, percentile)));
+            line.append(String.format(" %9s", count == 0 ? "-" : format(sorted[count - 1])));
+            System.out.println(line);
+        }
+
+        private static String millis(long[] sorted, double percentile){
+            if(sorted.length == 0)
+                return "-";
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return format(sorted[Math.max(0, index)]);
+        }
+
+        private static String format(long nanos){
+            return String.format("%.1fms", nanos / 1_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.kt.vd.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic daily indices with the fields the controllers search on
+ *
+ * Every document is routed by user like the production indices. The sensor indices of today also get
+ * one reading per lane every 10 seconds for the last 30 minutes, so the init endpoints have data.
+ */
+class Seeder {
+
+    static final String[] drinks = {"coke", "cider", "water", "coffee", "juice", "tea", "milk", "sports"};
+    static final Map<String, List<String>> locations = new LinkedHashMap<>();
+    static final int lanes = 4;
+
+    static {
+        locations.put("Seoul", Arrays.asList("Gangnam", "Jongno", "Mapo"));
+        locations.put("Busan", Arrays.asList("Haeundae", "Suyeong"));
+        locations.put("Daegu", Arrays.asList("Suseong", "Jung"));
+    }
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int bulkSize = 5000;
+    private static final String mapping = "{\"settings\":{\"number_of_shards\":1,\"number_of_replicas\":0,\"refresh_interval\":\"-1\"},"
+            + "\"mappings\":{\"log\":{\"dynamic_templates\":[{\"strings\":{\"match_mapping_type\":\"string\",\"mapping\":{\"type\":\"keyword\"}}}],"
+            + "\"properties\":{\"date\":{\"type\":\"date\",\"format\":\"yyyy-MM-dd HH:mm:ss\"},\"hour_of_date\":{\"type\":\"integer\"},"
+            + "\"lane\":{\"type\":\"integer\"},\"degree\":{\"type\":\"float\"}}}}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String es;
+    private final int days;
+    private final int users;
+    private final int machines;
+    private final int docs;
+    private final Random random;
+
+    Seeder(LoadTest.Options options) {
+        this.es = options.get("es", "http://localhost:9200");
+        this.days = options.getInt("days", 30);
+        this.users = options.getInt("users", 5);
+        this.machines = options.getInt("machines", 5);
+        this.docs = options.getInt("docs", 2000);
+        this.random = new Random(options.getInt("seed", 1));
+    }
+
+
+    void seed() throws IOException {
+        LocalDate today = LocalDate.now();
+        for (int i = days - 1; i >= 0; i--) {
+            LocalDate day = today.minusDays(i);
+            LocalDateTime until = i == 0 ? LocalDateTime.now() : day.plusDays(1).atStartOfDay().minusSeconds(1);
+
+            seedIndex("sell-" + day, day, until, this::sell);
+            seedIndex("visit-" + day, day, until, this::visit);
+            seedIndex("temperature-" + day, day, until, this::sensor);
+            seedIndex("humidity-" + day, day, until, this::sensor);
+            System.out.println("Seeded " + day);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        for (String index : new String[]{"temperature-", "humidity-"}) {
+            StringBuilder bulk = new StringBuilder();
+            for (LocalDateTime time = now.minusMinutes(30); !time.isAfter(now); time = time.plusSeconds(10))
+                appendReadings(bulk, index + today, time);
+            bulk(bulk);
+            refresh(index + today);
+        }
+    }
+
+    /**
+     * One reading per lane of every machine at the given time, used by replay to keep the sensor endpoints live
+     */
+    void feed(LocalDateTime time) throws IOException {
+        StringBuilder bulk = new StringBuilder();
+        appendReadings(bulk, "temperature-" + time.toLocalDate(), time);
+        appendReadings(bulk, "humidity-" + time.toLocalDate(), time);
+        bulk(bulk);
+    }
+
+
+    private interface DocumentFactory {
+        Map<String, Object> create(String user, String machine, LocalDateTime date);
+    }
+
+    private void seedIndex(String index, LocalDate day, LocalDateTime until, DocumentFactory factory) throws IOException {
+        Http.request("DELETE", es + "/" + index, null, 60000);
+        Http.Response created = Http.request("PUT", es + "/" + index, mapping, 60000);
+        if(created.status >= 300)
+            throw new IOException("Creating " + index + " failed : " + created.body);
+
+        long seconds = Math.max(1, Duration.between(day.atStartOfDay(), until).getSeconds());
+        StringBuilder bulk = new StringBuilder();
+        for (int i = 0; i < docs; i++) {
+            String user = "user" + (1 + skewed(users));
+            String machine = "machine" + (1 + random.nextInt(machines));
+            LocalDateTime date = day.atStartOfDay().plusSeconds((long) (random.nextDouble() * seconds));
+            append(bulk, index, user, factory.create(user, machine, date));
+
+            if((i + 1) % bulkSize == 0) {
+                bulk(bulk);
+                bulk.setLength(0);
+            }
+        }
+        bulk(bulk);
+
+        Http.request("PUT", es + "/" + index + "/_settings", "{\"index\":{\"refresh_interval\":\"1s\"}}", 60000);
+        refresh(index);
+    }
+
+    private Map<String, Object> sell(String user, String machine, LocalDateTime date){
+        Map<String, Object> document = location(user, machine, date);
+        document.put("drink_type", drinks[skewed(drinks.length)]);
+        return document;
+    }
+
+    private Map<String, Object> visit(String user, String machine, LocalDateTime date){
+        return location(user, machine, date);
+    }
+
+    private Map<String, Object> location(String user, String machine, LocalDateTime date){
+        String province = (String) locations.keySet().toArray()[random.nextInt(locations.size())];
+        List<String> municipalities = locations.get(province);
+        String municipality = municipalities.get(random.nextInt(municipalities.size()));
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("user", user);
+        document.put("machine", machine);
+        document.put("province", province);
+        document.put("municipality", municipality);
+        document.put("submunicipality", municipality + "-" + (1 + random.nextInt(3)));
+        document.put("hour_of_date", date.getHour());
+        document.put("date", date.format(formatter));
+        return document;
+    }
+
+    private Map<String, Object> sensor(String user, String machine, LocalDateTime date){
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("user", user);
+        document.put("machine", machine);
+        document.put("lane", 1 + random.nextInt(lanes));
+        document.put("degree", Math.round((15 + random.nextGaussian() * 5) * 10) / 10.0);
+        document.put("date", date.format(formatter));
+        return document;
+    }
+
+    private void appendReadings(StringBuilder bulk, String index, LocalDateTime time) throws IOException {
+        for (int user = 1; user <= users; user++) {
+            for (int machine = 1; machine <= machines; machine++) {
+                for (int lane = 1; lane <= lanes; lane++) {
+                    Map<String, Object> document = sensor("user" + user, "machine" + machine, time.withNano(0));
+                    document.put("lane", lane);
+                    append(bulk, index, "user" + user, document);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lower numbers are picked more often, a few users and drinks take most of the traffic like in production
+     */
+    private int skewed(int size){
+        return (int) (size * Math.pow(random.nextDouble(), 2));
+    }
+
+    private void append(StringBuilder bulk, String index, String routing, Map<String, Object> document) throws IOException {
+        bulk.append("{\"index\":{\"_index\":\"").append(index).append("\",\"_type\":\"log\",\"_routing\":\"").append(routing).append("\"}}\n");
+        bulk.append(objectMapper.writeValueAsString(document)).append('\n');
+    }
+
+    private void bulk(StringBuilder bulk) throws IOException {
+        if(bulk.length() == 0)
+            return;
+
+        Http.Response response = Http.request("POST", es + "/_bulk", bulk.toString(), 120000);
+        if(response.status >= 300 || response.body.contains("\"errors\":true"))
+            throw new IOException("Bulk request failed : " + response.body.substring(0, Math.min(1000, response.body.length())));
+    }
+
+    private void refresh(String index) throws IOException {
+        Http.request("POST", es + "/" + index + "/_refresh", null, 60000);
+    }
+}
@@ -0,0 +1,42 @@
+package com.kt.vd;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    @Value("${statistics.async.pool-size:16}")
+    int poolSize;
+
+    @Value("${statistics.async.queue-capacity:1000}")
+    int queueCapacity;
+
+    @Value("${statistics.async.timeout:30000}")
+    long timeout;
+
+
+    /**
+     * Runs the continuations of ElasticSearch and redis calls, off the tomcat threads
+     */
+    @Bean
+    public ThreadPoolTaskExecutor statisticsExecutor(){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("statistics-");
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(timeout);
+        configurer.setTaskExecutor(statisticsExecutor());
+    }
+}
@@ -0,0 +1,336 @@
+package com.kt.vd.ElasticSearch;
+
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking searches on the query executor.
+ *
+ * The request thread is released while ElasticSearch works, and the returned futures
+ * complete on the statistics executor so callbacks never run on client I/O threads.
+ * A search that takes longer than its timeout fails with ElasticsearchTimeoutException.
+ * Aggregation searches started inside batch() are sent together as one _msearch request
+ * with either executor (a lone search is sent as a plain search).
+ */
+@Component
+public class AsyncSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncSearch.class);
+
+    @Autowired
+    QueryExecutor queryExecutor;
+
+    @Autowired
+    @Qualifier("statisticsExecutor")
+    Executor executor;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${statistics.elasticsearch.timeout:10000}")
+    long timeout;
+
+    private final ScheduledThreadPoolExecutor timer = timer();
+
+    private final ThreadLocal<List<Batched>> batch = new ThreadLocal<>();
+
+
+    public CompletableFuture<SearchResponse> search(SearchQuery searchQuery){
+        return search(searchQuery, timeout);
+    }
+
+    /**
+     * @param searchQuery
+     * @param timeout milliseconds
+     * @return
+     */
+    public CompletableFuture<SearchResponse> search(SearchQuery searchQuery, long timeout){
+        return execute(prepareSearch(searchQuery), timeout);
+    }
+
+    /**
+     * Page of hits following the hit whose sort values are searchAfter
+     *
+     * @param searchQuery sorted with a unique tie breaker
+     * @param searchAfter null for the first page
+     * @return
+     */
+    public CompletableFuture<SearchResponse> searchAfter(SearchQuery searchQuery, Object[] searchAfter){
+        return searchAfter(searchQuery, searchAfter, timeout);
+    }
+
+    public CompletableFuture<SearchResponse> searchAfter(SearchQuery searchQuery, Object[] searchAfter, long timeout){
+        SearchRequest request = prepareSearch(searchQuery);
+        if(searchAfter != null)
+            request.source().searchAfter(searchAfter);
+        return execute(request, timeout);
+    }
+
+    public CompletableFuture<Aggregations> aggregate(SearchQuery searchQuery){
+        List<Batched> queued = batch.get();
+        if(queued != null) {
+            Batched batched = new Batched(searchQuery);
+            queued.add(batched);
+            return batched.future;
+        }
+        return aggregate(searchQuery, timeout);
+    }
+
+    public CompletableFuture<Aggregations> aggregate(SearchQuery searchQuery, long timeout){
+        return search(searchQuery, timeout).thenApply(SearchResponse::getAggregations);
+    }
+
+    public CompletableFuture<Long> count(SearchQuery searchQuery){
+        SearchRequest request = prepareSearch(searchQuery);
+        request.source().size(0);
+        return execute(request, timeout)
+                .thenApply(response -> response.getHits().getTotalHits());
+    }
+
+
+    /**
+     * Several aggregation queries in one _msearch round trip
+     *
+     * @param searchQueries
+     * @return aggregations in the same order, null for a query that failed
+     */
+    public CompletableFuture<List<Aggregations>> multiAggregate(List<SearchQuery> searchQueries){
+        CompletableFuture<List<Aggregations>> future = new CompletableFuture<>();
+        if(searchQueries.isEmpty()) {
+            future.complete(new ArrayList<>());
+            return future;
+        }
+
+        MultiSearchRequest request = new MultiSearchRequest();
+        List<String> indexTags = new ArrayList<>();
+        for (SearchQuery searchQuery : searchQueries) {
+            SearchRequest search = prepareSearch(searchQuery);
+            indexTags.add(recordIndices(search.indices()));
+            request.add(search);
+        }
+
+        long start = System.nanoTime();
+        ScheduledFuture<?> expiry = expire(future, timeout);
+        queryExecutor.multiSearch(request).whenComplete((response, e) -> {
+            expiry.cancel(false);
+            if(e != null) {
+                executor.execute(() -> future.completeExceptionally(e));
+                return;
+            }
+
+            recordClient("msearch", start);
+            List<Aggregations> results = new ArrayList<>();
+            MultiSearchResponse.Item[] items = response.getResponses();
+            for (int i = 0; i < items.length; i++) {
+                if(items[i].isFailure()) {
+                    log.warn("ElasticSearch multi search item failed : {}", items[i].getFailureMessage());
+                    results.add(null);
+                } else {
+                    recordTook(indexTags.get(i), items[i].getResponse());
+                    results.add(items[i].getResponse().getAggregations());
+                }
+            }
+            executor.execute(() -> future.complete(results));
+        });
+        return future;
+    }
+
+    /**
+     * Run the body with the aggregation searches it starts on this thread held back,
+     * then send them all as one _msearch round trip (a plain search when only one was started).
+     * Searches the body starts from other threads, or from callbacks, are not held back
+     *
+     * @param body
+     * @return what the body returns, its futures complete once the _msearch answers
+     */
+    public <T> T batch(Supplier<T> body){
+        if(batch.get() != null)
+            return body.get();
+
+        List<Batched> queued = new ArrayList<>();
+        batch.set(queued);
+        try {
+            return body.get();
+        } finally {
+            batch.remove();
+            flush(queued);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        timer.shutdownNow();
+    }
+
+
+    private void flush(List<Batched> queued){
+        if(queued.isEmpty())
+            return;
+        if(queued.size() == 1) {
+            Batched batched = queued.get(0);
+            aggregate(batched.searchQuery, timeout).whenComplete(batched::complete);
+            return;
+        }
+
+        List<SearchQuery> searchQueries = new ArrayList<>(queued.size());
+        for (Batched batched : queued)
+            searchQueries.add(batched.searchQuery);
+
+        multiAggregate(searchQueries).whenComplete((aggregationsList, e) -> {
+            for (int i = 0; i < queued.size(); i++) {
+                if(e != null)
+                    queued.get(i).complete(null, e);
+                else if(aggregationsList.get(i) == null)
+                    queued.get(i).complete(null, new ElasticsearchException("Multi search item failed"));
+                else
+                    queued.get(i).complete(aggregationsList.get(i), null);
+            }
+        });
+    }
+
+    /**
+     * Aggregation search held back by a batch
+     */
+    private static class Batched {
+        final SearchQuery searchQuery;
+        final CompletableFuture<Aggregations> future = new CompletableFuture<>();
+
+        Batched(SearchQuery searchQuery){
+            this.searchQuery = searchQuery;
+        }
+
+        void complete(Aggregations aggregations, Throwable e){
+            if(e != null)
+                future.completeExceptionally(e);
+            else
+                future.complete(aggregations);
+        }
+    }
+
+
+    private CompletableFuture<SearchResponse> execute(SearchRequest request, long timeout){
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        String index = recordIndices(request.indices());
+
+        long start = System.nanoTime();
+        ScheduledFuture<?> expiry = expire(future, timeout);
+        queryExecutor.search(request).whenComplete((response, e) -> {
+            expiry.cancel(false);
+            if(e != null) {
+                executor.execute(() -> future.completeExceptionally(e));
+                return;
+            }
+
+            recordClient(index, start);
+            recordTook(index, response);
+            executor.execute(() -> future.complete(response));
+        });
+        return future;
+    }
+
+    /**
+     * Fail the future if it is still pending after the timeout, the late response is then ignored
+     */
+    private ScheduledFuture<?> expire(CompletableFuture<?> future, long timeout){
+        return timer.schedule(() -> {
+            if(!future.isDone())
+                executor.execute(() -> future.completeExceptionally(
+                        new ElasticsearchTimeoutException("Search timed out after {}ms", timeout)));
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor timer(){
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "search-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Number of indices a search fans out to, daily indices of a long range add up quickly
+     *
+     * @return the index tag, the index name up to its date suffix
+     */
+    private String recordIndices(String[] indices){
+        String index = "none";
+        if(indices != null && indices.length > 0) {
+            int separator = indices[0].indexOf('-');
+            index = separator > 0 ? indices[0].substring(0, separator) : indices[0];
+        }
+
+        DistributionSummary.builder("statistics.es.indices")
+                .tags("index", index)
+                .register(meterRegistry)
+                .record(indices == null ? 0 : indices.length);
+        return index;
+    }
+
+    /**
+     * Round trip seen by the client, including the transport and the response parsing
+     */
+    private void recordClient(String index, long start){
+        meterRegistry.timer("statistics.es.client", "index", index).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time ElasticSearch reports spending on the search itself
+     */
+    private void recordTook(String index, SearchResponse response){
+        meterRegistry.timer("statistics.es.took", "index", index).record(response.getTookInMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same request as ElasticsearchTemplate builds, but aggregation queries skip the hits
+     */
+    private SearchRequest prepareSearch(SearchQuery searchQuery){
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(searchQuery.getQuery());
+
+        if(searchQuery.getFilter() != null)
+            source.postFilter(searchQuery.getFilter());
+        if(searchQuery.getElasticsearchSorts() != null) {
+            for (SortBuilder sort : searchQuery.getElasticsearchSorts())
+                source.sort(sort);
+        }
+        if(searchQuery.getAggregations() != null && !searchQuery.getAggregations().isEmpty()) {
+            for (AbstractAggregationBuilder aggregation : searchQuery.getAggregations())
+                source.aggregation(aggregation);
+            source.size(0);
+        } else {
+            source.from((int) searchQuery.getPageable().getOffset());
+            source.size(searchQuery.getPageable().getPageSize());
+        }
+
+        SearchRequest request = new SearchRequest(searchQuery.getIndices().toArray(new String[0])).source(source);
+        if(searchQuery.getRoute() != null)
+            request.routing(searchQuery.getRoute());
+        return request;
+    }
+}
@@ -0,0 +1,391 @@
+package com.kt.vd.ElasticSearch;
+
+
+import com.kt.vd.Redis.JsonListResult;
+import com.kt.vd.Redis.RedisManager;
+import com.kt.vd.result.TermCount;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Terms aggregation over daily indices, computed one day at a time.
+ *
+ * Every settled day (closed for settle-delay, so its last documents are searchable) is stored in redis as its
+ * own partial aggregate for partial-ttl days, so a range query only sends the days that are not cached yet
+ * (usually just today) to ElasticSearch. Documents of a closed day indexed later through /ingest delete the
+ * partials they change, see LateDocuments; the expiry bounds how long a write that bypassed /ingest stays unseen.
+ *
+ * When every event goes through /ingest (statistics.ingest.authoritative), the ingested events of today also
+ * increment one redis hash per countByTerm query, and today is read from that hash instead of ElasticSearch.
+ * Today falls back to ElasticSearch while its hash does not exist.
+ */
+@Component
+public class DailyAggregator {
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    RedisManager redisManager;
+    @Autowired
+    IndexManager indexManager;
+
+    @Value("${statistics.ingest.authoritative:false}")
+    boolean authoritative;
+
+    /**
+     * Milliseconds after the end of a day before its partials are stored, covers the ingest queue and the index refresh
+     */
+    @Value("${statistics.daily.settle-delay:10000}")
+    long settleDelay;
+
+    /**
+     * Days a closed day's partial is kept, then it is aggregated again from its index
+     */
+    @Value("${statistics.daily.partial-ttl:7}")
+    int partialTtl;
+
+    static final String keyField = "key";
+    static final String countField = "count";
+    static final String subKeyField = "sub";
+    static final private String counterSuffix = "counter";
+    static final private int counterTtl = 2;
+
+
+    /**
+     *
+     *  Count documents per 'field' term between startDate and endDate
+     *
+     * @param index index prefix, ex) "sell-"
+     * @param prefix redis key prefix of the partial aggregates
+     * @param query
+     * @param route
+     * @param field
+     * @param size max number of terms kept per day
+     * @param startDate
+     * @param endDate
+     * @param parameters redis key parameters identifying the query (user, machine ...)
+     * @return term -> document count over the whole range
+     */
+    public CompletableFuture<Map<Object, Long>> countByTerm(String index, String prefix, QueryBuilder query, String route,
+                                         String field, int size, LocalDate startDate, LocalDate endDate,
+                                         String... parameters){
+        TermsAggregationBuilder agg = AggregationBuilders.terms("agg").field(field).size(size);
+
+        return dailyPartials(index, prefix, query, route, agg, DailyAggregator::toPartial, authoritative, startDate, endDate, parameters)
+                .thenApply(partials -> {
+                    Map<Object, Long> merged = new HashMap<>();
+                    for(List<Map<String, Object>> partial : partials)
+                        mergePartial(merged, partial);
+                    return merged;
+                });
+    }
+
+    /**
+     *
+     *  Count documents per 'field' term, then per 'subField' term inside it, between startDate and endDate
+     *
+     * @param index index prefix, ex) "sell-"
+     * @param prefix redis key prefix of the partial aggregates
+     * @param query
+     * @param route
+     * @param field
+     * @param size max number of terms kept per day
+     * @param subField
+     * @param subSize max number of sub terms kept per term and day
+     * @param startDate
+     * @param endDate
+     * @param parameters redis key parameters identifying the query (user, machine ...)
+     * @return term -> sub term -> document count over the whole range
+     */
+    public CompletableFuture<Map<Object, Map<Object, Long>>> countByTerms(String index, String prefix, QueryBuilder query, String route,
+                                         String field, int size, String subField, int subSize,
+                                         LocalDate startDate, LocalDate endDate, String... parameters){
+        TermsAggregationBuilder agg = AggregationBuilders.terms("agg").field(field).size(size)
+                .subAggregation(AggregationBuilders.terms("sub").field(subField).size(subSize));
+
+        return dailyPartials(index, prefix, query, route, agg, DailyAggregator::toNestedPartial, false, startDate, endDate, parameters)
+                .thenApply(partials -> {
+                    Map<Object, Map<Object, Long>> merged = new HashMap<>();
+                    for(List<Map<String, Object>> partial : partials)
+                        mergeNestedPartial(merged, partial);
+                    return merged;
+                });
+    }
+
+
+    /**
+     * Partial aggregates of every day of the range, from redis when the day is closed and cached,
+     * or when the day is today and counted
+     */
+    private CompletableFuture<List<List<Map<String, Object>>>> dailyPartials(String index, String prefix, QueryBuilder query, String route,
+                                         TermsAggregationBuilder agg, Function<Terms, List<Map<String, Object>>> toPartial,
+                                         boolean counted, LocalDate startDate, LocalDate endDate, String... parameters){
+        LocalDate today = LocalDate.now();
+        if(endDate.isAfter(today))
+            endDate = today;
+
+        List<List<Map<String, Object>>> partials = new ArrayList<>();
+        if(startDate.isAfter(endDate))
+            return CompletableFuture.completedFuture(partials);
+
+        List<LocalDate> closedDays = new ArrayList<>();
+        for(LocalDate day = startDate; day.isBefore(endDate.plusDays(1)) && day.isBefore(today); day = day.plusDays(1))
+            closedDays.add(day);
+
+        List<LocalDate> missingDays = new ArrayList<>();
+        Map<LocalDate, String> missingKeys = new HashMap<>();
+
+        List<JsonListResult> cached = redisManager.getDailyJsonListResults(prefix, closedDays, parameters);
+        for(int i = 0; i < closedDays.size(); i++){
+            JsonListResult partial = cached.get(i);
+            if(partial.getValue() != null) {
+                partials.add(partial.getValue());
+            }else if(!indexManager.exists(index + closedDays.get(i).toString())){
+                // nothing is stored, the index may still appear (late ingest, restore)
+                continue;
+            }else{
+                missingDays.add(closedDays.get(i));
+                missingKeys.put(closedDays.get(i), partial.getKey());
+            }
+        }
+        if(!endDate.isBefore(today) && indexManager.exists(index + today.toString())) {
+            Map<String, Long> counters = counted ? redisManager.getCounters(prefix, counterKey(prefix, today, parameters)) : null;
+            if(counters != null)
+                partials.add(toPartial(counters, agg.size()));
+            else
+                missingDays.add(today);
+        }
+
+        if(missingDays.isEmpty())
+            return CompletableFuture.completedFuture(partials);
+
+        return aggregateByDay(index, query, route, agg, toPartial, missingDays).thenApply(searched -> {
+            for(LocalDate day : missingDays){
+                List<Map<String, Object>> partial = searched.getOrDefault(day, Collections.emptyList());
+                partials.add(partial);
+
+                if(missingKeys.containsKey(day) && settled(day))
+                    redisManager.setJsonListOpts(missingKeys.get(day), partial, partialTtl, TimeUnit.DAYS);
+            }
+            return partials;
+        });
+    }
+
+
+    /**
+     * One search over the given days, bucketed by index so every day keeps its own partial aggregate
+     */
+    private CompletableFuture<Map<LocalDate, List<Map<String, Object>>>> aggregateByDay(String index, QueryBuilder query, String route,
+                                                                     TermsAggregationBuilder agg, Function<Terms, List<Map<String, Object>>> toPartial,
+                                                                     List<LocalDate> days){
+        String[] index_names = days.stream().map(day -> index + day.toString()).toArray(String[]::new);
+
+        NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder()
+                .withQuery(query)
+                .withIndices(index_names)
+                .addAggregation(AggregationBuilders.terms("day").field("_index").size(days.size())
+                        .subAggregation(agg));
+        if(route != null)
+            queryBuilder.withRoute(route);
+        SearchQuery searchQuery = queryBuilder.build();
+
+        return asyncSearch.aggregate(searchQuery).thenApply(aggregations -> {
+            Terms dayAgg = aggregations.get("day");
+
+            Map<LocalDate, List<Map<String, Object>>> partials = new HashMap<>();
+            for (Terms.Bucket dayBucket : dayAgg.getBuckets()) {
+                LocalDate day = LocalDate.parse(dayBucket.getKeyAsString().substring(index.length()));
+                partials.put(day, toPartial.apply(dayBucket.getAggregations().get("agg")));
+            }
+            return partials;
+        });
+    }
+
+
+    /**
+     * True once the day has been closed for settle-delay, what is computed from it can be kept
+     * @param day
+     * @return
+     */
+    public boolean settled(LocalDate day){
+        return settledAt(day).isBefore(LocalDateTime.now());
+    }
+
+    /**
+     * End of the day plus settle-delay
+     * @param day
+     * @return
+     */
+    public LocalDateTime settledAt(LocalDate day){
+        return day.plusDays(1).atStartOfDay().plus(settleDelay, ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Redis key of the partial aggregate of a day, as read by countByTerm / countByTerms
+     * @param prefix
+     * @param day
+     * @param parameters
+     * @return
+     */
+    public String partialKey(String prefix, LocalDate day, String... parameters){
+        return redisManager.generateRedisKey(redisManager.generateRedisKey(prefix, parameters), day.toString());
+    }
+
+    /**
+     * Add an ingested event of today to the counters of a countByTerm query
+     * @param increments redis key -> field -> increment, see recordCounts
+     * @param prefix redis key prefix of the partial aggregates
+     * @param term term of the event, String or Number as ElasticSearch returns it
+     * @param parameters redis key parameters identifying the query (user, machine ...)
+     */
+    public void count(Map<String, Map<String, Long>> increments, String prefix, Object term, String... parameters){
+        increments.computeIfAbsent(counterKey(prefix, LocalDate.now(), parameters), key -> new HashMap<>())
+                .merge(counterField(term), 1L, Long::sum);
+    }
+
+    /**
+     * Write the counts of count, nothing unless ingestion is authoritative
+     * @param increments
+     */
+    public void recordCounts(Map<String, Map<String, Long>> increments){
+        if(authoritative)
+            redisManager.incrementCounters(increments, counterTtl, TimeUnit.DAYS);
+    }
+
+    private String counterKey(String prefix, LocalDate day, String... parameters){
+        return redisManager.generateRedisKey(partialKey(prefix, day, parameters), counterSuffix);
+    }
+
+    /**
+     * Hash fields keep the type of the term, numeric terms come back from ElasticSearch as Long
+     */
+    private static String counterField(Object term){
+        return term instanceof Number ? "n:" + term : "s:" + term;
+    }
+
+    private static Object counterTerm(String field){
+        return field.startsWith("n:") ? (Object) Long.parseLong(field.substring(2)) : field.substring(2);
+    }
+
+    /**
+     * Partial aggregate of counters, limited to the 'size' terms a terms aggregation would return
+     */
+    private static List<Map<String, Object>> toPartial(Map<String, Long> counters, int size){
+        Map<Object, Long> counts = new HashMap<>();
+        counters.forEach((field, count) -> counts.put(counterTerm(field), count));
+
+        List<Map<String, Object>> partial = new ArrayList<>();
+        for (Map.Entry<Object, Long> entry : orderByCount(counts, size)) {
+            Map<String, Object> data = new HashMap<>();
+            data.put(keyField, entry.getKey());
+            data.put(countField, entry.getValue());
+            partial.add(data);
+        }
+        return partial;
+    }
+
+    /**
+     * Partial aggregate of a terms aggregation, as stored for countByTerm
+     */
+    public static List<Map<String, Object>> toPartial(Terms agg){
+        return TermCount.fromBuckets(keyField, countField, agg);
+    }
+
+    /**
+     * Partial aggregate of a terms aggregation with a "sub" terms aggregation, as stored for countByTerms
+     */
+    public static List<Map<String, Object>> toNestedPartial(Terms agg){
+        List<Map<String, Object>> partial = new ArrayList<>();
+        for (Terms.Bucket entry : agg.getBuckets()) {
+            Terms sub = entry.getAggregations().get("sub");
+            for (Terms.Bucket subEntry : sub.getBuckets()) {
+                Map<String, Object> data = new HashMap<>();
+                data.put(keyField, entry.getKey());
+                data.put(subKeyField, subEntry.getKey());
+                data.put(countField, subEntry.getDocCount());
+
+                partial.add(data);
+            }
+        }
+        return partial;
+    }
+
+
+    private static void mergePartial(Map<Object, Long> merged, List<Map<String, Object>> partial){
+        for(Map<String, Object> data : partial){
+            merged.merge(normalizeKey(data.get(keyField)), ((Number) data.get(countField)).longValue(), Long::sum);
+        }
+    }
+
+    private static void mergeNestedPartial(Map<Object, Map<Object, Long>> merged, List<Map<String, Object>> partial){
+        for(Map<String, Object> data : partial){
+            merged.computeIfAbsent(normalizeKey(data.get(keyField)), key -> new HashMap<>())
+                    .merge(normalizeKey(data.get(subKeyField)), ((Number) data.get(countField)).longValue(), Long::sum);
+        }
+    }
+
+    /**
+     * Numeric terms come back from ElasticSearch as Long but from redis as Integer
+     */
+    private static Object normalizeKey(Object key){
+        if(key instanceof Number)
+            return ((Number) key).longValue();
+        return key;
+    }
+
+    private static int compareKey(Object a, Object b){
+        if(a instanceof Number && b instanceof Number)
+            return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+        return a.toString().compareTo(b.toString());
+    }
+
+
+    /**
+     * Document count per term of a countByTerms result, summed over its sub terms
+     */
+    public static Map<Object, Long> totals(Map<Object, Map<Object, Long>> counts){
+        Map<Object, Long> totals = new HashMap<>();
+        counts.forEach((key, subCounts) ->
+                totals.put(key, subCounts.values().stream().mapToLong(Long::longValue).sum()));
+        return totals;
+    }
+
+    /**
+     * Same order as a terms aggregation : doc count desc, then term asc
+     */
+    public static List<Map.Entry<Object, Long>> orderByCount(Map<Object, Long> counts, int size){
+        return counts.entrySet().stream()
+                .sorted((a, b) -> {
+                    int order = Long.compare(b.getValue(), a.getValue());
+                    return order != 0 ? order : compareKey(a.getKey(), b.getKey());
+                })
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Same order as a terms aggregation with Terms.Order.term(true)
+     */
+    public static List<Map.Entry<Object, Long>> orderByKey(Map<Object, Long> counts, int size){
+        return counts.entrySet().stream()
+                .sorted((a, b) -> compareKey(a.getKey(), b.getKey()))
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,277 @@
+package com.kt.vd.ElasticSearch;
+
+
+import com.kt.vd.Redis.RedisManager;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+
+/**
+ * Writes the partial aggregates of DailyAggregator for every user of a closed day ahead of time.
+ *
+ * Each closed day is read one page of users at a time (users in key order, the next page starts after the last
+ * user of the previous one, see KeysetAggregator), and the partials of a page are written with MSET,
+ * so range queries over past days no longer touch the raw events even on their first request.
+ * Searches are chained without blocking the scheduler thread, a run still going when the next one is due is not overlapped.
+ * A day is marked as rolled up so later runs skip it, the last 'statistics.rollup.days' days are retried.
+ * Late documents of a day delete its marker with the partials they change (see staleKeys), so the next run
+ * rolls the day up again.
+ */
+public abstract class DailyRollup {
+
+    private static final Logger log = LoggerFactory.getLogger(DailyRollup.class);
+
+    static final private String rollupPrefix = "rollup";
+    static final private int chunkSize = 500;
+
+    @Autowired
+    protected AsyncSearch asyncSearch;
+    @Autowired
+    protected RedisManager redisManager;
+    @Autowired
+    protected IndexManager indexManager;
+    @Autowired
+    protected DailyAggregator dailyAggregator;
+
+    @Value("${statistics.rollup.enabled:true}")
+    protected boolean enabled;
+
+    @Value("${statistics.rollup.days:7}")
+    protected int days;
+
+    /**
+     * Users aggregated per search
+     */
+    @Value("${statistics.rollup.page-size:500}")
+    protected int pageSize;
+
+    @Value("${statistics.rollup.machine-size:1000}")
+    protected int machineSize;
+
+    /**
+     * A page of users is aggregated at once, allow longer than the request searches
+     */
+    @Value("${statistics.rollup.timeout:120000}")
+    protected long timeout;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+
+    /**
+     * Index prefix, ex) "sell-"
+     */
+    protected abstract String index();
+
+    /**
+     * Aggregations run inside the bucket of each user
+     */
+    protected abstract List<AbstractAggregationBuilder> userAggregations();
+
+    /**
+     * Convert the aggregations of a user into partial aggregates
+     * @param user bucket of the user
+     * @param day
+     * @param partials redis key -> partial aggregate
+     */
+    protected abstract void collect(Terms.Bucket user, LocalDate day, Map<String, List<Map<String, Object>>> partials);
+
+    /**
+     * Aggregations over the whole day, none by default
+     */
+    protected List<AbstractAggregationBuilder> dayAggregations() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Write what a page of users keeps besides its partial aggregates, nothing by default
+     * @param users
+     * @param day
+     */
+    protected void rolledUp(Terms users, LocalDate day) {
+    }
+
+    /**
+     * Write what the day keeps from dayAggregations, nothing by default
+     * @param aggregations
+     * @param day
+     */
+    protected void rolledUp(Aggregations aggregations, LocalDate day) {
+    }
+
+    /**
+     * Add the redis keys of a closed day whose value a document of that day changes
+     * @param document source of the document
+     * @param day
+     * @param keys
+     */
+    protected abstract void staleKeys(Map<String, Object> document, LocalDate day, Set<String> keys);
+
+
+    /**
+     * Redis keys made stale by documents of a closed day indexed late, with the rollup marker of the day
+     * @param index_name daily index of the documents
+     * @param documents sources
+     * @return empty when the index is not rolled up here or its day is not closed
+     */
+    public Set<String> staleKeys(String index_name, List<Map<String, Object>> documents){
+        if(!index_name.startsWith(index()))
+            return Collections.emptySet();
+        LocalDate day;
+        try {
+            day = LocalDate.parse(index_name.substring(index().length()));
+        } catch (DateTimeParseException e) {
+            return Collections.emptySet();
+        }
+        if(!day.isBefore(LocalDate.now()))
+            return Collections.emptySet();
+
+        Set<String> keys = new HashSet<>();
+        keys.add(redisManager.generateRedisKey(rollupPrefix, index_name));
+        for (Map<String, Object> document : documents)
+            staleKeys(document, day, keys);
+        return keys;
+    }
+
+
+    @Scheduled(cron = "${statistics.rollup.cron:0 5 0 * * *}")
+    public void rollup(){
+        if(!enabled || !running.compareAndSet(false, true))
+            return;
+
+        CompletableFuture<Void> run = CompletableFuture.completedFuture(null);
+        try {
+            LocalDate today = LocalDate.now();
+            for(LocalDate day = today.minusDays(days); day.isBefore(today); day = day.plusDays(1)){
+                String index_name = index() + day.toString();
+                if(!dailyAggregator.settled(day) || !indexManager.exists(index_name) || redisManager.getIntegerResult(rollupPrefix, index_name).getValue() != null)
+                    continue;
+
+                LocalDate rolled = day;
+                run = run.thenCompose(done -> rollupAndMark(rolled));
+            }
+        } finally {
+            run.whenComplete((done, e) -> running.set(false));
+        }
+    }
+
+    /**
+     * Roll up a single closed day
+     * @param day
+     * @return number of partials written
+     */
+    public CompletableFuture<Integer> rollup(LocalDate day){
+        return rollupUsers(day, null, 0).thenCompose(written -> {
+            List<AbstractAggregationBuilder> aggregations = dayAggregations();
+            if(aggregations.isEmpty())
+                return CompletableFuture.completedFuture(written);
+
+            NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder()
+                    .withQuery(constantScoreQuery(matchAllQuery()))
+                    .withIndices(index() + day.toString());
+            for (AbstractAggregationBuilder aggregation : aggregations)
+                queryBuilder.addAggregation(aggregation);
+
+            return asyncSearch.aggregate(queryBuilder.build(), timeout).thenApply(dayAggs -> {
+                rolledUp(dayAggs, day);
+                return written;
+            });
+        }).thenApply(written -> {
+            log.info("Rolled up {}{} into {} partials", index(), day, written);
+            return written;
+        });
+    }
+
+
+    /**
+     * Roll up the day, then mark it, a failure is logged and the day is retried by the next run
+     */
+    private CompletableFuture<Void> rollupAndMark(LocalDate day){
+        String index_name = index() + day.toString();
+
+        CompletableFuture<Integer> rolling;
+        try {
+            rolling = rollup(day);
+        } catch (RuntimeException e) {
+            rolling = new CompletableFuture<>();
+            rolling.completeExceptionally(e);
+        }
+
+        return rolling.handle((written, e) -> {
+            try {
+                if(e != null)
+                    log.warn("Rollup of {} failed : {}", index_name, (e instanceof CompletionException && e.getCause() != null ? e.getCause() : e).getMessage());
+                else
+                    redisManager.setIntegerOpts(redisManager.generateRedisKey(rollupPrefix, index_name), 1, days + 1, TimeUnit.DAYS);
+            } catch (RuntimeException markFailure) {
+                log.warn("Rollup marker of {} failed : {}", index_name, markFailure.getMessage());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The page of users after 'after', then the following pages
+     * @param after last user of the previous page, null for the first page
+     * @param written partials written by the previous pages
+     */
+    private CompletableFuture<Integer> rollupUsers(LocalDate day, String after, int written){
+        TermsAggregationBuilder users = AggregationBuilders.terms("user").field("user")
+                .size(pageSize).order(Terms.Order.term(true));
+        for (AbstractAggregationBuilder aggregation : userAggregations())
+            users.subAggregation(aggregation);
+
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(after == null ? matchAllQuery() : rangeQuery("user").gt(after)))
+                .withIndices(index() + day.toString())
+                .addAggregation(users)
+                .build();
+
+        return asyncSearch.aggregate(searchQuery, timeout).thenCompose(aggregations -> {
+            Terms page = aggregations.get("user");
+
+            Map<String, List<Map<String, Object>>> partials = new HashMap<>();
+            for (Terms.Bucket user : page.getBuckets())
+                collect(user, day, partials);
+            write(partials);
+            rolledUp(page, day);
+
+            List<? extends Terms.Bucket> buckets = page.getBuckets();
+            if(buckets.size() < pageSize)
+                return CompletableFuture.completedFuture(written + partials.size());
+            return rollupUsers(day, buckets.get(buckets.size() - 1).getKeyAsString(), written + partials.size());
+        });
+    }
+
+    private void write(Map<String, List<Map<String, Object>>> partials){
+        Map<String, List<Map<String, Object>>> chunk = new HashMap<>();
+        for (Map.Entry<String, List<Map<String, Object>>> partial : partials.entrySet()) {
+            chunk.put(partial.getKey(), partial.getValue());
+            if(chunk.size() == chunkSize){
+                redisManager.setJsonListOpts(chunk, dailyAggregator.partialTtl, TimeUnit.DAYS);
+                chunk = new HashMap<>();
+            }
+        }
+        redisManager.setJsonListOpts(chunk, dailyAggregator.partialTtl, TimeUnit.DAYS);
+    }
+}
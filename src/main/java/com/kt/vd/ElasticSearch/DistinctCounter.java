@@ -0,0 +1,182 @@
+package com.kt.vd.ElasticSearch;
+
+
+import com.kt.vd.Redis.RedisManager;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.support.IncludeExclude;
+import org.elasticsearch.search.aggregations.metrics.cardinality.Cardinality;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distinct count of a field over daily indices, from one HyperLogLog sketch per day kept in redis.
+ *
+ * A settled day (see DailyAggregator.settled) is sketched once and never expires, until late documents of
+ * that day delete its sketch; today and unsettled days are sketched again on every call.
+ * Days without an index have no sketch.
+ * The range is answered by PFCOUNT over its day sketches, merged inside redis, so the memory it takes
+ * does not grow with the range or the number of distinct values.
+ * A day is sketched from its terms, read in partitions of at most partition-size terms; the number of
+ * partitions comes from a cardinality aggregation of the days being sketched.
+ */
+@Component
+public class DistinctCounter {
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    RedisManager redisManager;
+    @Autowired
+    IndexManager indexManager;
+    @Autowired
+    DailyAggregator dailyAggregator;
+
+    @Value("${statistics.distinct.partition-size:10000}")
+    int partitionSize;
+
+    static final private String buildingSuffix = "building";
+    static final private int buildingTtl = 1;
+
+
+    /**
+     *
+     * Approximate number of distinct 'field' values between startDate and endDate
+     *
+     * @param index index prefix, ex) "sell-"
+     * @param prefix redis key prefix of the day sketches
+     * @param query
+     * @param route
+     * @param field
+     * @param startDate
+     * @param endDate
+     * @param parameters redis key parameters identifying the query (user, drink ...)
+     * @return
+     */
+    public CompletableFuture<Long> countDistinct(String index, String prefix, QueryBuilder query, String route, String field,
+                                                 LocalDate startDate, LocalDate endDate, String... parameters){
+        LocalDate today = LocalDate.now();
+        if(endDate.isAfter(today))
+            endDate = today;
+        if(startDate.isAfter(endDate))
+            return CompletableFuture.completedFuture(0L);
+
+        List<LocalDate> days = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for(LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+            days.add(day);
+            keys.add(sketchKey(prefix, day, parameters));
+        }
+
+        String build = UUID.randomUUID().toString();
+        List<String> countKeys = new ArrayList<>();
+        Map<LocalDate, String> buildingKeys = new LinkedHashMap<>();
+        List<String> unpublished = new ArrayList<>();
+        List<Boolean> exists = redisManager.exists(prefix, keys);
+        for (int i = 0; i < days.size(); i++) {
+            LocalDate day = days.get(i);
+            boolean closed = dailyAggregator.settled(day);
+            if(closed && exists.get(i)) {
+                countKeys.add(keys.get(i));
+            } else if(indexManager.exists(index + day.toString())) {
+                String buildingKey = redisManager.generateRedisKey(keys.get(i), buildingSuffix, build);
+                redisManager.addToSketch(buildingKey, Collections.emptyList(), buildingTtl, TimeUnit.HOURS);
+                buildingKeys.put(day, buildingKey);
+                countKeys.add(closed ? keys.get(i) : buildingKey);
+                if(!closed)
+                    unpublished.add(buildingKey);
+            }
+        }
+
+        if(buildingKeys.isEmpty())
+            return CompletableFuture.completedFuture(redisManager.countSketches(prefix, countKeys));
+
+        List<LocalDate> missingDays = new ArrayList<>(buildingKeys.keySet());
+        String[] index_names = missingDays.stream().map(day -> index + day.toString()).toArray(String[]::new);
+
+        return search(index_names, query, route, AggregationBuilders.cardinality("agg").field(field))
+                .thenCompose(aggregations -> {
+                    long cardinality = 0;
+                    Terms dayAgg = aggregations.get("day");
+                    for (Terms.Bucket dayBucket : dayAgg.getBuckets())
+                        cardinality = Math.max(cardinality, ((Cardinality) dayBucket.getAggregations().get("agg")).getValue());
+
+                    // headroom for the uneven split of terms between partitions
+                    int partitions = (int) Math.max(1, (cardinality * 5 / 4 + partitionSize - 1) / partitionSize);
+                    return sketch(index, index_names, query, route, field, buildingKeys, 0, partitions);
+                })
+                .thenApply(sketched -> {
+                    buildingKeys.forEach((day, buildingKey) -> {
+                        if(!unpublished.contains(buildingKey))
+                            redisManager.publishSketch(buildingKey, sketchKey(prefix, day, parameters));
+                    });
+                    long count = redisManager.countSketches(prefix, countKeys);
+                    // sketches of days still open are only built for this count
+                    redisManager.discardSketches(unpublished);
+                    return count;
+                })
+                .whenComplete((count, e) -> {
+                    if(e != null)
+                        redisManager.discardSketches(buildingKeys.values());
+                });
+    }
+
+    /**
+     * Add the terms of a partition to the sketch of their day, then the next partitions
+     */
+    private CompletableFuture<Void> sketch(String index, String[] index_names, QueryBuilder query, String route, String field,
+                                           Map<LocalDate, String> buildingKeys, int partition, int partitions){
+        if(partition == partitions)
+            return CompletableFuture.completedFuture(null);
+
+        AggregationBuilder agg = AggregationBuilders.terms("agg").field(field).size(partitionSize)
+                .includeExclude(new IncludeExclude(partition, partitions));
+
+        return search(index_names, query, route, agg).thenCompose(aggregations -> {
+            Terms dayAgg = aggregations.get("day");
+            for (Terms.Bucket dayBucket : dayAgg.getBuckets()) {
+                LocalDate day = LocalDate.parse(dayBucket.getKeyAsString().substring(index.length()));
+                Terms terms = dayBucket.getAggregations().get("agg");
+
+                List<String> values = new ArrayList<>(terms.getBuckets().size());
+                for (Terms.Bucket bucket : terms.getBuckets())
+                    values.add(bucket.getKeyAsString());
+                if(!values.isEmpty())
+                    redisManager.addToSketch(buildingKeys.get(day), values, buildingTtl, TimeUnit.HOURS);
+            }
+            return sketch(index, index_names, query, route, field, buildingKeys, partition + 1, partitions);
+        });
+    }
+
+    /**
+     * One search over the given days, bucketed by index as in DailyAggregator
+     */
+    private CompletableFuture<Aggregations> search(String[] index_names, QueryBuilder query, String route, AggregationBuilder agg){
+        NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder()
+                .withQuery(query)
+                .withIndices(index_names)
+                .addAggregation(AggregationBuilders.terms("day").field("_index").size(index_names.length)
+                        .subAggregation(agg));
+        if(route != null)
+            queryBuilder.withRoute(route);
+
+        return asyncSearch.aggregate(queryBuilder.build());
+    }
+
+    /**
+     * Redis key of the sketch of a day
+     */
+    public String sketchKey(String prefix, LocalDate day, String... parameters){
+        return redisManager.generateRedisKey(redisManager.generateRedisKey(prefix, parameters), day.toString());
+    }
+}
@@ -1,25 +1,121 @@
 package com.kt.vd.ElasticSearch;
 
 
-import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.ElasticsearchException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+/**
+ * Catalog of the daily indices.
+ *
+ * The index list is fetched periodically so requests only target indices that exist,
+ * and whole months or years of a range are sent as a single wildcard.
+ */
+@Component
 public class IndexManager {
 
+    private static final Logger log = LoggerFactory.getLogger(IndexManager.class);
+
+    static final String[] patterns = {"sell-*", "visit-*", "temperature-*", "humidity-*"};
 
     @Autowired
-    ElasticsearchTemplate esTemplate;
+    QueryExecutor queryExecutor;
+
+    private volatile Set<String> catalog = null;
+
+
+    @Scheduled(fixedDelayString = "${statistics.index.refresh-interval:60000}")
+    public void refresh(){
+        try {
+            String[] indices = queryExecutor.indices(patterns);
+            catalog = new HashSet<>(Arrays.asList(indices));
+        } catch (ElasticsearchException e) {
+            log.warn("Index catalog refresh failed : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Add an index created since the last refresh (ex. by ingestion), so it is searched right away
+     * @param index_name
+     */
+    public void add(String index_name){
+        Set<String> indices = catalog;
+        if(indices == null || indices.contains(index_name))
+            return;
+
+        Set<String> updated = new HashSet<>(indices);
+        updated.add(index_name);
+        catalog = updated;
+    }
+
+    /**
+     * Index exists as of the last refresh (always true until the catalog is loaded)
+     * @param index_name
+     * @return
+     */
+    public boolean exists(String index_name){
+        Set<String> indices = catalog;
+        return indices == null || indices.contains(index_name);
+    }
+
 
-    void test(){
-        esTemplate.getClient().admin().indices().getIndex(new GetIndexRequest().indices("sell-*")).actionGet().getIndices();
+    /**
+     *
+     *  Index names between startDate and endDate, trimmed to existing indices
+     *  Months and years entirely inside the range collapse to "index-yyyy-MM-*" / "index-yyyy-*"
+     *
+     * @param index
+     * @param startDate
+     * @param endDate
+     * @return empty when none of the days has an index
+     */
+    public String[] resolveIndex(String index, LocalDate startDate, LocalDate endDate){
+        Set<String> indices = catalog;
+        if(indices == null)
+            return generateIndex(index, startDate, endDate);
+
+        LocalDate now = LocalDate.now();
+        if(endDate.isAfter(now))
+            endDate = now;
+
+        List<String> index_names = new ArrayList<>();
+        LocalDate day = startDate;
+        while(!day.isAfter(endDate)){
+            if(day.getDayOfYear() == 1 && !day.plusYears(1).minusDays(1).isAfter(endDate)){
+                addPattern(index_names, indices, index + day.getYear() + "-");
+                day = day.plusYears(1);
+            }else if(day.getDayOfMonth() == 1 && !day.plusMonths(1).minusDays(1).isAfter(endDate)){
+                addPattern(index_names, indices, index + day.toString().substring(0, 7) + "-");
+                day = day.plusMonths(1);
+            }else{
+                if(indices.contains(index + day.toString()))
+                    index_names.add(index + day.toString());
+                day = day.plusDays(1);
+            }
+        }
+
+        return index_names.toArray(new String[index_names.size()]);
+    }
+
+    /**
+     * A wildcard matching no index is dropped, so the request never ends up without any index
+     */
+    private static void addPattern(List<String> index_names, Set<String> indices, String prefix){
+        for (String name : indices) {
+            if(name.startsWith(prefix)){
+                index_names.add(prefix + "*");
+                return;
+            }
+        }
     }
 
 
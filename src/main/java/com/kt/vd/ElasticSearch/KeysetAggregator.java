@@ -0,0 +1,142 @@
+package com.kt.vd.ElasticSearch;
+
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Complete document counts per combination of terms, one bounded page at a time.
+ *
+ * Pages the way a composite aggregation would (ElasticSearch 5.6 has none): combinations come in key order,
+ * and a page aggregates only the documents whose combination sorts after the last one of the previous page,
+ * in nested terms aggregations ordered by key and limited to 'size' terms each. Key order makes the first
+ * 'size' combinations exact whatever the cardinality, and a page never holds more than size^fields buckets.
+ */
+@Component
+public class KeysetAggregator {
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    IndexManager indexManager;
+
+    @Value("${statistics.breakdown.max-size:100}")
+    int maxSize;
+
+    static final String countField = "count";
+
+
+    /**
+     *
+     * @param index index prefix, ex) "sell-"
+     * @param query
+     * @param route
+     * @param fields terms of a combination, outermost first
+     * @param after last combination of the previous page, empty for the first page
+     * @param size combinations per page, at most max-size
+     * @param startDate
+     * @param endDate
+     * @return {"buckets" : [{field : term, ..., "count"}], "after" : [term, ...]}, "after" is null on the last page
+     */
+    public CompletableFuture<Map<String, Object>> page(String index, QueryBuilder query, String route, List<String> fields,
+                                                       List<String> after, int size, LocalDate startDate, LocalDate endDate){
+        int pageSize = Math.min(size, maxSize);
+
+        String[] index_names = indexManager.resolveIndex(index, startDate, endDate);
+        if(index_names.length == 0)
+            return CompletableFuture.completedFuture(toPage(new ArrayList<>(), null));
+
+        BoolQueryBuilder boolQuery = boolQuery().filter(query);
+        if(!after.isEmpty())
+            boolQuery.filter(after(fields, after));
+
+        TermsAggregationBuilder aggregation = null;
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            TermsAggregationBuilder terms = AggregationBuilders.terms(fields.get(i)).field(fields.get(i))
+                    .size(pageSize).order(Terms.Order.term(true));
+            if(aggregation != null)
+                terms.subAggregation(aggregation);
+            aggregation = terms;
+        }
+
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(boolQuery))
+                .withIndices(index_names)
+                .withRoute(route)
+                .addAggregation(aggregation)
+                .build();
+
+        return asyncSearch.aggregate(searchQuery).thenApply(aggregations -> {
+            List<Map<String, Object>> buckets = new ArrayList<>(pageSize);
+            collect(aggregations, fields, 0, new LinkedHashMap<>(), buckets, pageSize);
+
+            List<String> next = null;
+            if(buckets.size() == pageSize) {
+                next = new ArrayList<>(fields.size());
+                for (String field : fields)
+                    next.add(buckets.get(pageSize - 1).get(field).toString());
+            }
+            return toPage(buckets, next);
+        });
+    }
+
+
+    /**
+     * Documents whose combination sorts after 'after' : the first i terms equal and the next one greater, for some i
+     */
+    private static QueryBuilder after(List<String> fields, List<String> after){
+        BoolQueryBuilder afterQuery = boolQuery().minimumShouldMatch(1);
+        for (int i = 0; i < fields.size(); i++) {
+            BoolQueryBuilder clause = boolQuery();
+            for (int j = 0; j < i; j++)
+                clause.filter(termQuery(fields.get(j), after.get(j)));
+            clause.filter(rangeQuery(fields.get(i)).gt(after.get(i)));
+            afterQuery.should(clause);
+        }
+        return afterQuery;
+    }
+
+    /**
+     * Depth first walk of the nested terms, stops after 'size' combinations
+     */
+    private static void collect(Aggregations aggregations, List<String> fields, int depth, Map<String, Object> keys,
+                                List<Map<String, Object>> buckets, int size){
+        Terms terms = aggregations.get(fields.get(depth));
+
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            if(buckets.size() >= size)
+                return;
+
+            Map<String, Object> combination = new LinkedHashMap<>(keys);
+            combination.put(fields.get(depth), bucket.getKeyAsString());
+            if(depth == fields.size() - 1) {
+                combination.put(countField, bucket.getDocCount());
+                buckets.add(combination);
+            } else {
+                collect(bucket.getAggregations(), fields, depth + 1, combination, buckets, size);
+            }
+        }
+    }
+
+    private static Map<String, Object> toPage(List<Map<String, Object>> buckets, List<String> after){
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("buckets", buckets);
+        page.put("after", after);
+        return page;
+    }
+}
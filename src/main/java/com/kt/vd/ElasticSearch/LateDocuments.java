@@ -0,0 +1,104 @@
+package com.kt.vd.ElasticSearch;
+
+
+import com.kt.vd.Redis.RedisManager;
+import org.elasticsearch.action.index.IndexRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forgets what was computed from a closed day when documents of that day are indexed after it closed
+ * (late events, or events replayed from the write-ahead buffer).
+ *
+ * Once the documents are searchable (settle-delay after their bulk), the partial aggregates, sketches and
+ * day sets they change are deleted with the rollup marker of their day, and are computed again on next use.
+ */
+@Component
+public class LateDocuments {
+
+    private static final Logger log = LoggerFactory.getLogger(LateDocuments.class);
+
+    static final private int dateLength = "yyyy-MM-dd".length();
+
+    @Autowired
+    List<DailyRollup> rollups;
+    @Autowired
+    RedisManager redisManager;
+    @Autowired
+    DailyAggregator dailyAggregator;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "late-documents");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    /**
+     * Documents a bulk has just indexed, only those of days closed by the time they are searchable are kept
+     * @param requests
+     */
+    public void indexed(List<IndexRequest> requests){
+        LocalDate searchable = LocalDateTime.now().plus(dailyAggregator.settleDelay, ChronoUnit.MILLIS).toLocalDate();
+        Map<String, List<IndexRequest>> byIndex = new HashMap<>();
+        for (IndexRequest request : requests) {
+            LocalDate day = dayOf(request.index());
+            if(day != null && day.isBefore(searchable))
+                byIndex.computeIfAbsent(request.index(), index -> new ArrayList<>()).add(request);
+        }
+        if(byIndex.isEmpty())
+            return;
+
+        scheduler.schedule(() -> invalidate(byIndex), dailyAggregator.settleDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        scheduler.shutdownNow();
+    }
+
+
+    private void invalidate(Map<String, List<IndexRequest>> byIndex){
+        try {
+            Set<String> keys = new HashSet<>();
+            byIndex.forEach((index_name, requests) -> {
+                if(!dayOf(index_name).isBefore(LocalDate.now()))
+                    return;
+
+                List<Map<String, Object>> documents = new ArrayList<>(requests.size());
+                for (IndexRequest request : requests)
+                    documents.add(request.sourceAsMap());
+                for (DailyRollup rollup : rollups)
+                    keys.addAll(rollup.staleKeys(index_name, documents));
+            });
+
+            redisManager.delete(keys);
+            if(!keys.isEmpty())
+                log.info("Late documents of {} invalidated {} keys", byIndex.keySet(), keys.size());
+        } catch (RuntimeException e) {
+            log.error("Invalidating the days of late documents failed", e);
+        }
+    }
+
+    private static LocalDate dayOf(String index_name){
+        if(index_name.length() < dateLength)
+            return null;
+        try {
+            return LocalDate.parse(index_name.substring(index_name.length() - dateLength));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
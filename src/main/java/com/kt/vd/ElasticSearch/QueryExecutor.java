@@ -0,0 +1,40 @@
+package com.kt.vd.ElasticSearch;
+
+
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends requests to the cluster, selected by statistics.elasticsearch.executor ("rest" or "transport").
+ *
+ * Futures may complete on client I/O threads, AsyncSearch moves the callbacks to the statistics executor.
+ */
+public interface QueryExecutor {
+
+    CompletableFuture<SearchResponse> search(SearchRequest request);
+
+    /**
+     * @return one item per request, in order, with its response or failure
+     */
+    CompletableFuture<MultiSearchResponse> multiSearch(MultiSearchRequest request);
+
+    /**
+     * @param request index requests only
+     * @return one item per request, in order, failed items do not fail the future
+     */
+    CompletableFuture<BulkResponse> bulk(BulkRequest request);
+
+    /**
+     * Names of the existing indices matching the patterns
+     *
+     * @param patterns ex) "sell-*"
+     * @throws org.elasticsearch.ElasticsearchException
+     */
+    String[] indices(String... patterns);
+}
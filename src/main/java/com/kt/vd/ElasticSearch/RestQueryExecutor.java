@@ -0,0 +1,321 @@
+package com.kt.vd.ElasticSearch;
+
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.CheckedFunction;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Requests over HTTP on a pooled, non-blocking REST client (statistics.elasticsearch.rest.*)
+ *
+ * Search and bulk bodies are gzip compressed and compressed responses are accepted when compression is enabled.
+ * The 5.x high level client has no _msearch, so its body is written here and every item of the response
+ * is read by the search response parser.
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.elasticsearch.executor", havingValue = "rest", matchIfMissing = true)
+public class RestQueryExecutor implements QueryExecutor {
+
+    @Value("${statistics.elasticsearch.rest.hosts:http://localhost:9200}")
+    String[] hosts;
+
+    @Value("${statistics.elasticsearch.rest.max-connections:100}")
+    int maxConnections;
+
+    @Value("${statistics.elasticsearch.rest.max-connections-per-route:50}")
+    int maxConnectionsPerRoute;
+
+    @Value("${statistics.elasticsearch.rest.connect-timeout:1000}")
+    int connectTimeout;
+
+    @Value("${statistics.elasticsearch.rest.socket-timeout:30000}")
+    int socketTimeout;
+
+    @Value("${statistics.elasticsearch.rest.compression:true}")
+    boolean compression;
+
+    private static final ContentType ndjson = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    private RestClient restClient;
+    private ResponseParser responseParser;
+
+
+    @PostConstruct
+    public void init(){
+        HttpHost[] httpHosts = Arrays.stream(hosts).map(String::trim).map(HttpHost::create).toArray(HttpHost[]::new);
+        restClient = RestClient.builder(httpHosts)
+                .setMaxRetryTimeoutMillis(socketTimeout)
+                .setRequestConfigCallback(config -> config
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout))
+                .setHttpClientConfigCallback(client -> client
+                        .setMaxConnTotal(maxConnections)
+                        .setMaxConnPerRoute(maxConnectionsPerRoute))
+                .build();
+        responseParser = new ResponseParser(restClient);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        restClient.close();
+    }
+
+
+    @Override
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+
+        Map<String, String> params = new HashMap<>();
+        // aggregations are parsed by type
+        params.put("typed_keys", "true");
+        if(request.routing() != null)
+            params.put("routing", request.routing());
+
+        String indices = request.indices() == null ? "" : String.join(",", request.indices());
+        String endpoint = indices.isEmpty() ? "/_search" : "/" + indices + "/_search";
+
+        try {
+            byte[] source = BytesReference.toBytes(XContentHelper.toXContent(request.source(), XContentType.JSON, false));
+            perform(endpoint, params, entity(source, ContentType.APPLICATION_JSON), SearchResponse::fromXContent, future);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+
+        Map<String, String> params = new HashMap<>();
+        if(request.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE)
+            params.put("refresh", request.getRefreshPolicy().getValue());
+
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, request.estimatedSizeInBytes() + 1024));
+            for (DocWriteRequest action : request.requests()) {
+                if(!(action instanceof IndexRequest))
+                    throw new IllegalArgumentException("Only index requests are supported : " + action);
+                IndexRequest indexRequest = (IndexRequest) action;
+
+                XContentBuilder metadata = XContentFactory.jsonBuilder().startObject().startObject("index")
+                        .field("_index", indexRequest.index())
+                        .field("_type", indexRequest.type());
+                if(indexRequest.id() != null)
+                    metadata.field("_id", indexRequest.id());
+                if(indexRequest.routing() != null)
+                    metadata.field("_routing", indexRequest.routing());
+                metadata.endObject().endObject();
+
+                metadata.bytes().writeTo(body);
+                body.write('\n');
+                if(indexRequest.getContentType() == XContentType.JSON)
+                    indexRequest.source().writeTo(body);
+                else
+                    body.write(XContentHelper.convertToJson(indexRequest.source(), false, indexRequest.getContentType())
+                            .getBytes(StandardCharsets.UTF_8));
+                body.write('\n');
+            }
+            perform("/_bulk", params, entity(body.toByteArray(), ndjson), BulkResponse::fromXContent, future);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<MultiSearchResponse> multiSearch(MultiSearchRequest request) {
+        CompletableFuture<MultiSearchResponse> future = new CompletableFuture<>();
+        if(request.requests().isEmpty()) {
+            future.complete(new MultiSearchResponse(new MultiSearchResponse.Item[0]));
+            return future;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        params.put("typed_keys", "true");
+
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (SearchRequest searchRequest : request.requests()) {
+                XContentBuilder metadata = XContentFactory.jsonBuilder().startObject();
+                if(searchRequest.indices() != null && searchRequest.indices().length > 0)
+                    metadata.array("index", searchRequest.indices());
+                if(searchRequest.routing() != null)
+                    metadata.field("routing", searchRequest.routing());
+                metadata.endObject();
+
+                metadata.bytes().writeTo(body);
+                body.write('\n');
+                XContentHelper.toXContent(searchRequest.source(), XContentType.JSON, false).writeTo(body);
+                body.write('\n');
+            }
+            perform("/_msearch", params, entity(body.toByteArray(), ndjson), this::parseMultiSearch, future);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    @Override
+    public String[] indices(String... patterns) {
+        Map<String, String> params = new HashMap<>();
+        params.put("h", "index");
+        try {
+            Response response = restClient.performRequest("GET", "/_cat/indices/" + String.join(",", patterns), params);
+            String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            return Arrays.stream(body.split("\n")).map(String::trim).filter(index -> !index.isEmpty()).toArray(String[]::new);
+        } catch (IOException e) {
+            throw toElasticsearchException(e);
+        }
+    }
+
+
+    private <T> void perform(String endpoint, Map<String, String> params, HttpEntity entity,
+                             CheckedFunction<XContentParser, T, IOException> parser, CompletableFuture<T> future){
+        restClient.performRequestAsync("POST", endpoint, params, entity, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    future.complete(responseParser.parse(decompress(response.getEntity()), parser));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(toElasticsearchException(e));
+            }
+        }, headers());
+    }
+
+    /**
+     * {"responses": [search response or {"error": ...}, ...]}, a failed item does not fail the others
+     */
+    @SuppressWarnings("unchecked")
+    private MultiSearchResponse parseMultiSearch(XContentParser parser) throws IOException {
+        Object responses = parser.map().get("responses");
+        if(!(responses instanceof List))
+            throw new ElasticsearchException("Unexpected _msearch response, no responses");
+
+        List<Object> items = (List<Object>) responses;
+        MultiSearchResponse.Item[] results = new MultiSearchResponse.Item[items.size()];
+        for (int i = 0; i < results.length; i++) {
+            Map<String, Object> item = (Map<String, Object>) items.get(i);
+            try {
+                if(item.containsKey("error")) {
+                    results[i] = new MultiSearchResponse.Item(null, itemFailure(item));
+                } else {
+                    byte[] source = BytesReference.toBytes(XContentFactory.jsonBuilder().map(item).bytes());
+                    results[i] = new MultiSearchResponse.Item(responseParser.parse(
+                            new ByteArrayEntity(source, ContentType.APPLICATION_JSON), SearchResponse::fromXContent), null);
+                }
+            } catch (IOException | RuntimeException e) {
+                results[i] = new MultiSearchResponse.Item(null, e);
+            }
+        }
+        return new MultiSearchResponse(results);
+    }
+
+    private HttpEntity entity(byte[] body, ContentType contentType) throws IOException {
+        if(!compression)
+            return new ByteArrayEntity(body, contentType);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(compressed.toByteArray(), contentType);
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    private Header[] headers(){
+        return compression ? new Header[]{new BasicHeader("Accept-Encoding", "gzip")} : new Header[0];
+    }
+
+    private static HttpEntity decompress(HttpEntity entity){
+        Header encoding = entity.getContentEncoding();
+        if(encoding != null && encoding.getValue().contains("gzip"))
+            return new GzipDecompressingEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Same exception type as the transport client, so callers handle both executors alike
+     */
+    private static ElasticsearchException toElasticsearchException(Exception e){
+        if(e instanceof ElasticsearchException)
+            return (ElasticsearchException) e;
+        if(e instanceof ResponseException) {
+            Response response = ((ResponseException) e).getResponse();
+            return new ElasticsearchStatusException(e.getMessage(), RestStatus.fromCode(response.getStatusLine().getStatusCode()));
+        }
+        return new ElasticsearchException(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ElasticsearchException itemFailure(Map<String, Object> item){
+        Object error = item.get("error");
+        Object reason = error instanceof Map ? ((Map<String, Object>) error).get("reason") : error;
+        Object status = item.get("status");
+        return new ElasticsearchStatusException(String.valueOf(reason),
+                status instanceof Number ? RestStatus.fromCode(((Number) status).intValue()) : RestStatus.INTERNAL_SERVER_ERROR);
+    }
+
+
+    /**
+     * Only used for the response parsers of the high level client (named aggregation parsers)
+     */
+    private static class ResponseParser extends RestHighLevelClient {
+
+        ResponseParser(RestClient restClient) {
+            super(restClient);
+        }
+
+        <T> T parse(HttpEntity entity, CheckedFunction<XContentParser, T, IOException> parser) throws IOException {
+            return parseEntity(entity, parser);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.kt.vd.ElasticSearch;
+
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Requests on the transport client of ElasticsearchTemplate (spring.data.elasticsearch.cluster-nodes)
+ */
+@Component
+@ConditionalOnProperty(name = "statistics.elasticsearch.executor", havingValue = "transport")
+public class TransportQueryExecutor implements QueryExecutor {
+
+    @Autowired
+    ElasticsearchTemplate esTemplate;
+
+
+    @Override
+    public CompletableFuture<SearchResponse> search(SearchRequest request) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        esTemplate.getClient().search(request, listener(future));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<MultiSearchResponse> multiSearch(MultiSearchRequest request) {
+        CompletableFuture<MultiSearchResponse> future = new CompletableFuture<>();
+        esTemplate.getClient().multiSearch(request, listener(future));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<BulkResponse> bulk(BulkRequest request) {
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        esTemplate.getClient().bulk(request, listener(future));
+        return future;
+    }
+
+    @Override
+    public String[] indices(String... patterns) {
+        return esTemplate.getClient().admin().indices()
+                .getIndex(new GetIndexRequest().indices(patterns)).actionGet().getIndices();
+    }
+
+
+    private static <T> ActionListener<T> listener(CompletableFuture<T> future){
+        return new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(ExceptionsHelper.unwrapCause(e));
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package com.kt.vd.Redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 자주 조회되는 기간 캐시 미리 계산
+ *
+ * 조회 수 상위 키 중 아직 없는 키(자정 이후 날짜가 바뀐 기간 등)와 만료가 가까운 키를 다시 계산한다.
+ * 동시에 계산하는 키 수를 제한하고, 요청 처리 스레드 풀이 바쁘면 다음 주기로 미룬다.
+ * 당일이 포함된 기간 중 soft TTL 이 지난 키도 같은 loader 로 다시 계산한다 (RedisManager 참고).
+ */
+@Component
+public class CacheWarmer {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+    /**
+     * prefix 별 캐시 계산, 계산한 값은 key 에 저장해야 함
+     */
+    public interface Loader {
+        CompletableFuture<?> load(String key, List<String> parameters, LocalDate start, LocalDate end);
+    }
+
+    @Autowired
+    RedisManager redisManager;
+
+    @Autowired
+    KeyPopularity keyPopularity;
+
+    @Autowired
+    @Qualifier("statisticsExecutor")
+    ThreadPoolTaskExecutor statisticsExecutor;
+
+    @Value("${statistics.warmer.enabled:true}")
+    boolean enabled;
+
+    @Value("${statistics.warmer.top:100}")
+    int top;
+
+    @Value("${statistics.warmer.concurrency:2}")
+    int concurrency;
+
+    /**
+     * 남은 만료 시간이 이 값(초) 이하이면 다시 계산
+     */
+    @Value("${statistics.warmer.refresh-before:300}")
+    long refreshBefore;
+
+    /**
+     * 요청 처리 스레드 중 이 비율 이상이 사용 중이면 계산을 미룸
+     */
+    @Value("${statistics.warmer.busy-ratio:0.5}")
+    double busyRatio;
+
+    private final Map<String, Loader> loaders = new ConcurrentHashMap<>();
+    private final Deque<Runnable> pending = new ConcurrentLinkedDeque<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private Semaphore permits;
+
+
+    @PostConstruct
+    public void init(){
+        permits = new Semaphore(concurrency);
+    }
+
+    /**
+     * @param prefix RedisManager 조회에 쓰는 prefix
+     * @param loader
+     */
+    public void register(String prefix, Loader loader){
+        loaders.put(prefix, loader);
+    }
+
+
+    /**
+     * soft TTL 이 지난 키를 대기열 앞에 넣어 다시 계산 (stale-while-revalidate)
+     * @param prefix
+     * @param parameters 조회 인자, 마지막 두 값이 시작일과 종료일
+     * @return 다시 계산할 loader 가 있으면 true
+     */
+    public boolean revalidate(String prefix, List<String> parameters){
+        Loader loader = loaders.get(prefix);
+        if(loader == null || parameters.size() < 2)
+            return false;
+
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(parameters.get(parameters.size() - 2));
+            end = LocalDate.parse(parameters.get(parameters.size() - 1));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+
+        String key = redisManager.generateRedisKey(prefix, parameters.toArray(new String[parameters.size()]));
+        if(queued.add(key))
+            pending.addFirst(() -> load(key, loader, parameters.subList(0, parameters.size() - 2), start, end));
+        drain();
+        return true;
+    }
+
+
+    @Scheduled(fixedDelayString = "${statistics.warmer.interval:60000}")
+    public void warm(){
+        if(!enabled)
+            return;
+
+        LocalDate today = LocalDate.now();
+        for (KeyPopularity.Entry entry : keyPopularity.top(top)) {
+            Loader loader = loaders.get(entry.getPrefix());
+            LocalDate start = entry.getStart(today);
+            LocalDate end = entry.getEnd(today);
+            if(loader == null || start.isAfter(end) || redisManager.permitCache(end))
+                continue;
+
+            List<String> parameters = new ArrayList<>(entry.getParameters());
+            parameters.add(start.toString());
+            parameters.add(end.toString());
+            String key = redisManager.generateRedisKey(entry.getPrefix(), parameters.toArray(new String[parameters.size()]));
+
+            // -2 : 없는 키, -1 : 만료 없음
+            Long ttl = redisManager.getExpire(key);
+            if(ttl == null || ttl == -1 || ttl > refreshBefore || queued.contains(key))
+                continue;
+
+            queued.add(key);
+            pending.add(() -> load(key, loader, entry.getParameters(), start, end));
+        }
+        drain();
+    }
+
+    /**
+     * 날짜가 지날수록 예전 조회 수의 비중을 줄임
+     */
+    @Scheduled(cron = "${statistics.warmer.decay-cron:0 0 0 * * *}")
+    public void decay(){
+        keyPopularity.decay();
+    }
+
+
+    private void load(String key, Loader loader, List<String> parameters, LocalDate start, LocalDate end){
+        CompletableFuture<Object> warming;
+        try {
+            warming = redisManager.loadOnce(key, () -> loader.load(key, parameters, start, end).thenApply(value -> (Object) value));
+        } catch (RuntimeException e) {
+            warming = new CompletableFuture<>();
+            warming.completeExceptionally(e);
+        }
+
+        warming.whenComplete((value, e) -> {
+            queued.remove(key);
+            permits.release();
+            if(e != null)
+                log.warn("Warming {} failed : {}", key, e.getMessage());
+            drain();
+        });
+    }
+
+    private void drain(){
+        while(!pending.isEmpty() && !busy() && permits.tryAcquire()){
+            Runnable task = pending.poll();
+            if(task == null) {
+                permits.release();
+                return;
+            }
+            task.run();
+        }
+    }
+
+    private boolean busy(){
+        return statisticsExecutor.getActiveCount() >= statisticsExecutor.getMaxPoolSize() * busyRatio;
+    }
+}
@@ -0,0 +1,89 @@
+package com.kt.vd.Redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 캐시 값 직렬화
+ *
+ * [magic][version][flags] 헤더 뒤에 Smile(binary JSON) 로 저장한다.
+ * 결과 값은 List / Map / 숫자 / 문자열 로만 이루어져 있어 클래스 정보(@class) 를 남기지 않고,
+ * 큰 값은 deflate 로 압축한다.
+ * 헤더가 없는 값은 이전 GenericJackson2JsonRedisSerializer 형식으로 읽고,
+ * 알 수 없는 버전은 캐시 미스(null) 로 처리해 다시 계산된 값으로 덮어쓰게 한다.
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    static final byte magic = (byte) 0xCB;
+    static final byte version = 1;
+    static final byte deflated = 0x01;
+    static final int headerLength = 3;
+
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final GenericJackson2JsonRedisSerializer legacySerializer = new GenericJackson2JsonRedisSerializer();
+    private final int compressThreshold;
+
+    public CompactRedisSerializer(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if(value == null)
+            return new byte[0];
+
+        try {
+            byte[] payload = smileMapper.writeValueAsBytes(value);
+            boolean compress = payload.length >= compressThreshold;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + headerLength);
+            out.write(magic);
+            out.write(version);
+            out.write(compress ? deflated : 0);
+            if(compress) {
+                try (OutputStream deflater = new DeflaterOutputStream(out)) {
+                    deflater.write(payload);
+                }
+            } else {
+                out.write(payload);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SerializationException("Could not write compact value", e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if(bytes == null || bytes.length == 0)
+            return null;
+        if(bytes[0] != magic)
+            return legacySerializer.deserialize(bytes);
+        if(bytes.length < headerLength || bytes[1] != version)
+            return null;
+
+        try {
+            if((bytes[2] & deflated) != 0) {
+                try (InputStream inflater = new InflaterInputStream(
+                        new ByteArrayInputStream(bytes, headerLength, bytes.length - headerLength))) {
+                    return smileMapper.readValue(inflater, Object.class);
+                }
+            }
+            return smileMapper.readValue(bytes, headerLength, bytes.length - headerLength, Object.class);
+        } catch (IOException e) {
+            throw new SerializationException("Could not read compact value", e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.kt.vd.Redis;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 기간 조회 캐시 키의 조회 수
+ *
+ * 기간은 오늘 기준 몇일 전인지로 기록해, 날짜가 바뀌어도 "최근 7일" 같은 같은 조회로 센다.
+ */
+@Component
+public class KeyPopularity {
+
+    @Value("${statistics.warmer.tracked-keys:10000}")
+    int maximumKeys;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+
+    /**
+     * 마지막 두 인자가 시작일, 종료일인 조회만 기록
+     * @param prefix
+     * @param parameters
+     */
+    public void record(String prefix, String... parameters){
+        int length = parameters.length;
+        if(length < 2)
+            return;
+
+        LocalDate start;
+        LocalDate end;
+        try {
+            start = LocalDate.parse(parameters[length - 2]);
+            end = LocalDate.parse(parameters[length - 1]);
+        } catch (DateTimeParseException e) {
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        List<String> keyParameters = Arrays.asList(Arrays.copyOf(parameters, length - 2));
+        long startOffset = ChronoUnit.DAYS.between(start, today);
+        long endOffset = ChronoUnit.DAYS.between(end, today);
+
+        String id = prefix + "|" + String.join("|", keyParameters) + "|" + startOffset + "|" + endOffset;
+        Entry entry = entries.get(id);
+        if(entry == null) {
+            if(entries.size() >= maximumKeys)
+                return;
+            entry = entries.computeIfAbsent(id, k -> new Entry(prefix, keyParameters, startOffset, endOffset));
+        }
+        entry.hits.incrementAndGet();
+    }
+
+    /**
+     * 조회 수가 많은 순
+     * @param size
+     * @return
+     */
+    public List<Entry> top(int size){
+        return entries.values().stream()
+                .sorted((a, b) -> Long.compare(b.getHits(), a.getHits()))
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 조회 수를 절반으로 줄여 오래된 인기 키가 밀려나게 함
+     */
+    public void decay(){
+        entries.entrySet().removeIf(entry -> entry.getValue().hits.updateAndGet(hits -> hits / 2) == 0);
+    }
+
+
+    public static class Entry {
+        private final String prefix;
+        private final List<String> parameters;
+        private final long startOffset;
+        private final long endOffset;
+        private final AtomicLong hits = new AtomicLong();
+
+        Entry(String prefix, List<String> parameters, long startOffset, long endOffset) {
+            this.prefix = prefix;
+            this.parameters = parameters;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * 날짜를 제외한 키 인자
+         */
+        public List<String> getParameters() {
+            return parameters;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public LocalDate getStart(LocalDate today) {
+            return today.minusDays(startOffset);
+        }
+
+        public LocalDate getEnd(LocalDate today) {
+            return today.minusDays(endOffset);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.kt.vd.Redis;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.kt.vd.result.TermCount;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 레디스 앞단의 인스턴스 내부 캐시 (L1)
+ *
+ * 값의 대략적인 크기로 용량을 제한하고, 키 prefix 별로 만료 시간을 다르게 둔다.
+ * 값을 저장한 인스턴스가 pub/sub 으로 키를 알려 다른 인스턴스의 L1 에서 제거한다.
+ */
+@Component
+public class LocalCache implements MessageListener {
+
+    static final String invalidationTopic = "statistics:l1:invalidate";
+
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${statistics.l1.enabled:true}")
+    boolean enabled;
+
+    @Value("${statistics.l1.maximum-weight:67108864}")
+    long maximumWeight;
+
+    @Value("${statistics.l1.default-ttl:60}")
+    long defaultTtl;
+
+    /**
+     * "prefix=seconds" 목록, 가장 긴 prefix 가 적용됨
+     */
+    @Value("${statistics.l1.ttl:}")
+    String[] ttls;
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Long> prefixTtls = new HashMap<>();
+    private Cache<String, Object> cache;
+
+
+    @PostConstruct
+    public void init(){
+        for (String ttl : ttls) {
+            int separator = ttl.lastIndexOf('=');
+            if(separator > 0)
+                prefixTtls.put(ttl.substring(0, separator).trim(), Long.parseLong(ttl.substring(separator + 1).trim()));
+        }
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(enabled ? maximumWeight : 0)
+                .weigher((String key, Object value) -> weigh(key) + weigh(value))
+                .expireAfter(new Expiry<String, Object>() {
+                    @Override
+                    public long expireAfterCreate(String key, Object value, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(ttlOf(key));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+                        return TimeUnit.SECONDS.toNanos(ttlOf(key));
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "l1");
+
+        listenerContainer.addMessageListener(this, new ChannelTopic(invalidationTopic));
+    }
+
+
+    public Object get(String key){
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * 레디스에서 읽은 값 저장 (다른 인스턴스에 알리지 않음)
+     * @param key
+     * @param value
+     */
+    public void putLocal(String key, Object value){
+        if(value != null)
+            cache.put(key, value);
+    }
+
+    /**
+     * 레디스에 새로 쓴 값 저장, 다른 인스턴스의 L1 에서는 제거
+     * @param key
+     * @param value
+     */
+    public void put(String key, Object value){
+        putLocal(key, value);
+        stringRedisTemplate.convertAndSend(invalidationTopic, instanceId + "|" + key);
+    }
+
+    /**
+     * 레디스에서 지운 키 제거, 다른 인스턴스의 L1 에서도 제거
+     * @param key
+     */
+    public void evict(String key){
+        cache.invalidate(key);
+        stringRedisTemplate.convertAndSend(invalidationTopic, instanceId + "|" + key);
+    }
+
+    public CacheStats stats(){
+        return cache.stats();
+    }
+
+    public long estimatedSize(){
+        return cache.estimatedSize();
+    }
+
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf('|');
+        if(separator < 0 || body.substring(0, separator).equals(instanceId))
+            return;
+
+        cache.invalidate(body.substring(separator + 1));
+    }
+
+
+    private long ttlOf(String key){
+        String matched = null;
+        for (String prefix : prefixTtls.keySet()) {
+            if(key.startsWith(prefix + ":") && (matched == null || prefix.length() > matched.length()))
+                matched = prefix;
+        }
+        return matched == null ? defaultTtl : prefixTtls.get(matched);
+    }
+
+    /**
+     * 캐시 값의 대략적인 힙 사용량 (byte)
+     */
+    static int weigh(Object value){
+        if(value == null)
+            return 0;
+        if(value instanceof String)
+            return 40 + ((String) value).length() * 2;
+        if(value instanceof Number || value instanceof Boolean)
+            return 16;
+        if(value instanceof TermCount)
+            return 40 + weigh(((TermCount) value).getKey());
+        if(value instanceof Map) {
+            int weight = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                weight += 32 + weigh(entry.getKey()) + weigh(entry.getValue());
+            return weight;
+        }
+        if(value instanceof Collection) {
+            int weight = 24;
+            for (Object element : (Collection<?>) value)
+                weight += 8 + weigh(element);
+            return weight;
+        }
+        return 64;
+    }
+}
@@ -1,15 +1,39 @@
 package com.kt.vd.Redis;
 
+import com.kt.vd.metrics.CacheTag;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 @Component
 public class RedisManager {
@@ -25,6 +49,62 @@ public class RedisManager {
     @Resource(name="redisTemplate")
     ValueOperations<String,  List<Map<String, List<Map<String, Object>>>>> jsonListsOpts;
 
+    @Resource(name="redisTemplate")
+    ValueOperations<String, Object> objectOpts;
+
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    LocalCache localCache;
+
+    @Autowired
+    KeyPopularity keyPopularity;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    @Lazy
+    CacheWarmer cacheWarmer;
+
+    @Value("${statistics.cache.lock.enabled:false}")
+    boolean lockEnabled;
+
+    @Value("${statistics.cache.lock.lease:10000}")
+    long lockLease;
+
+    @Value("${statistics.cache.lock.poll-interval:50}")
+    long lockPollInterval;
+
+    /**
+     * 당일이 포함된 기간의 값을 soft TTL 이 지나도 반환하고 백그라운드에서 다시 계산
+     */
+    @Value("${statistics.cache.swr.enabled:true}")
+    boolean swrEnabled;
+
+    /**
+     * 당일이 포함된 기간의 값이 최신으로 취급되는 시간 (초), 저장 시 TTL 이 hard TTL
+     */
+    @Value("${statistics.cache.swr.soft-ttl:10}")
+    int softTtl;
+
+    static final private String lockPrefix = "lock";
+    static final private String emptyMember = "";
+    static final private String freshSuffix = "fresh";
+    static final private byte[] freshValue = "1".getBytes(StandardCharsets.UTF_8);
+    static final private DefaultRedisScript<Long> unlockScript = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lockWaiter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "redis-lock-waiter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * 당일 이전 데이터 요청에 대해서 레디스 접근 허용
      * @param date
@@ -43,7 +123,7 @@ public class RedisManager {
      * @param parameters
      * @return
      */
-    private String generateRedisKey(String prefix, String... parameters){
+    public String generateRedisKey(String prefix, String... parameters){
         StringBuffer sb = new StringBuffer();
         sb.append(prefix);
 
@@ -55,37 +135,643 @@ public class RedisManager {
     }
 
 
+    /**
+     * L1 에 없으면 레디스에서 조회 후 L1 에 저장
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T get(String prefix, String key, ValueOperations<String, T> opts){
+        Object value = localCache.get(key);
+        if(value != null) {
+            recordLookup(prefix, "l1");
+            return (T) value;
+        }
+
+        long start = System.nanoTime();
+        T loaded = opts.get(key);
+        recordRedis(prefix, "get", start);
+        recordLookup(prefix, loaded != null ? "hit" : "miss");
+
+        localCache.putLocal(key, loaded);
+        return loaded;
+    }
+
+    /**
+     * 당일이 포함된 기간의 값은 L1 을 거치지 않고 fresh 표시와 함께 조회 (MGET)
+     * fresh 표시가 만료된 값은 그대로 반환하고, fresh 표시를 SET NX 로 다시 잡은 인스턴스만 백그라운드에서 다시 계산
+     * @param parameters 조회 인자, 마지막 두 값이 시작일과 종료일
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T getRevalidated(String prefix, String key, String... parameters){
+        String freshKey = this.generateRedisKey(key, freshSuffix);
+
+        long start = System.nanoTime();
+        List<Object> values = objectOpts.multiGet(Arrays.asList(key, freshKey));
+        recordRedis(prefix, "mget", start);
+
+        T value = values == null ? null : (T) values.get(0);
+        if(value == null) {
+            recordLookup(prefix, "miss");
+            return null;
+        }
+        if(values.get(1) != null) {
+            recordLookup(prefix, "hit");
+            return value;
+        }
+
+        // fresh 표시를 잡은 인스턴스만 다시 계산, 다시 계산할 loader 가 없으면 표시를 지우고 miss 로 처리
+        if(markFresh(freshKey, true) && !cacheWarmer.revalidate(prefix, Arrays.asList(parameters))) {
+            stringRedisTemplate.delete(freshKey);
+            recordLookup(prefix, "miss");
+            return null;
+        }
+        recordLookup(prefix, "stale");
+        return value;
+    }
+
+    /**
+     * soft TTL 동안 유효한 fresh 표시, ifAbsent 이면 다시 계산할 인스턴스 하나만 성공
+     */
+    private boolean markFresh(String freshKey, boolean ifAbsent){
+        byte[] rawKey = freshKey.getBytes(StandardCharsets.UTF_8);
+        Boolean marked = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, freshValue, Expiration.seconds(softTtl),
+                        ifAbsent ? RedisStringCommands.SetOption.SET_IF_ABSENT : RedisStringCommands.SetOption.UPSERT));
+        return Boolean.TRUE.equals(marked);
+    }
+
+    /**
+     * 마지막 인자가 오늘 이후 날짜인 키 (당일이 포함된 기간)
+     */
+    private boolean isLive(String key){
+        if(!swrEnabled)
+            return false;
+        try {
+            return !LocalDate.parse(key.substring(key.lastIndexOf(':') + 1)).isBefore(LocalDate.now());
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * L1 에 없는 키만 MGET
+     * @param prefix null 이면 키마다 prefix 를 찾음
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> multiGet(String prefix, List<String> keys, ValueOperations<String, T> opts){
+        List<T> values = new ArrayList<>(keys.size());
+        List<String> missingKeys = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            T value = (T) localCache.get(keys.get(i));
+            values.add(value);
+            if(value == null) {
+                missingKeys.add(keys.get(i));
+                missingIndexes.add(i);
+            } else {
+                recordLookup(prefix != null ? prefix : prefixOf(keys.get(i)), "l1");
+            }
+        }
+        if(missingKeys.isEmpty())
+            return values;
+
+        long start = System.nanoTime();
+        List<T> loaded = opts.multiGet(missingKeys);
+        recordRedis(prefix != null ? prefix : "multi", "mget", start);
+        if(loaded == null)
+            return values;
+
+        for (int i = 0; i < missingKeys.size(); i++) {
+            values.set(missingIndexes.get(i), loaded.get(i));
+            localCache.putLocal(missingKeys.get(i), loaded.get(i));
+            recordLookup(prefix != null ? prefix : prefixOf(missingKeys.get(i)), loaded.get(i) != null ? "hit" : "miss");
+        }
+        return values;
+    }
+
+
+    /**
+     * 여러 엔드포인트의 캐시 키를 한번의 MGET 으로 조회 (대시보드)
+     * 지난 기간 키는 L1 을 먼저 확인하고, 당일이 포함된 키는 fresh 표시와 함께 조회
+     * fresh 표시가 만료된 값은 null 로 반환하니 엔드포인트를 거쳐 다시 계산해야 함
+     * @param keys generateRedisKey 로 만든 키
+     * @return keys 와 같은 순서의 값, 없으면 null
+     */
+    public List<Object> multiGet(List<String> keys){
+        List<Object> values = new ArrayList<>(Collections.nCopies(keys.size(), null));
+        List<String> queried = new ArrayList<>();
+        List<Integer> queriedIndexes = new ArrayList<>();
+        List<Boolean> queriedLive = new ArrayList<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            boolean live = isLive(key);
+            Object value = live ? null : localCache.get(key);
+            if(value != null) {
+                values.set(i, value);
+                recordLookup(prefixOf(key), "l1");
+                continue;
+            }
+            queried.add(key);
+            queriedIndexes.add(i);
+            queriedLive.add(live);
+            if(live)
+                queried.add(this.generateRedisKey(key, freshSuffix));
+        }
+        if(queried.isEmpty())
+            return values;
+
+        long start = System.nanoTime();
+        List<Object> loaded = objectOpts.multiGet(queried);
+        recordRedis("multi", "mget", start);
+        if(loaded == null)
+            return values;
+
+        for (int i = 0, j = 0; i < queriedIndexes.size(); i++) {
+            String key = queried.get(j);
+            Object value = loaded.get(j++);
+            if(queriedLive.get(i)) {
+                if(loaded.get(j++) == null)
+                    value = null;
+            } else {
+                localCache.putLocal(key, value);
+            }
+            values.set(queriedIndexes.get(i), value);
+            if(value != null)
+                recordLookup(prefixOf(key), "hit");
+        }
+        return values;
+    }
+
+
     public JsonListResult getJsonListResult(String prefix, String... parameters){
         String key = this.generateRedisKey(prefix, parameters);
+        keyPopularity.record(prefix, parameters);
+        prefixes.add(prefix);
+
+        JsonListResult result = new JsonListResult(key, isLive(key)
+                ? this.getRevalidated(prefix, key, parameters) : this.get(prefix, key, jsonListOpts));
+        CacheTag.mark(result.getValue() != null);
+        return result;
+    }
+
+
+    /**
+     * 일자별 부분 집계 결과를 한번에 조회 (키 마지막 인자로 날짜 추가)
+     * @param prefix
+     * @param days
+     * @param parameters
+     * @return days 와 같은 순서의 결과
+     */
+    public List<JsonListResult> getDailyJsonListResults(String prefix, List<LocalDate> days, String... parameters){
+        if(days.isEmpty())
+            return Collections.emptyList();
+
+        String rangeKey = this.generateRedisKey(prefix, parameters);
+        prefixes.add(prefix);
+        List<String> keys = new ArrayList<>(days.size());
+        for (LocalDate day : days) {
+            keys.add(this.generateRedisKey(rangeKey, day.toString()));
+        }
 
-        return new JsonListResult(key, jsonListOpts.get(key));
+        List<List<Map<String, Object>>> values = this.multiGet(prefix, keys, jsonListOpts);
+        List<JsonListResult> results = new ArrayList<>(days.size());
+        for (int i = 0; i < keys.size(); i++) {
+            results.add(new JsonListResult(keys.get(i), values.get(i)));
+        }
+        return results;
     }
 
 
     public IntegerResult getIntegerResult(String prefix, String... parameters){
         String key = this.generateRedisKey(prefix, parameters);
+        keyPopularity.record(prefix, parameters);
+        prefixes.add(prefix);
 
-        return new IntegerResult(key, integerOpts.get(key));
+        IntegerResult result = new IntegerResult(key, isLive(key)
+                ? this.getRevalidated(prefix, key, parameters) : this.get(prefix, key, integerOpts));
+        CacheTag.mark(result.getValue() != null);
+        return result;
     }
 
 
     public JsonListsResult getJsonListsResult(String prefix, String... parameters){
         String key = this.generateRedisKey(prefix, parameters);
+        keyPopularity.record(prefix, parameters);
+        prefixes.add(prefix);
+
+        JsonListsResult result = new JsonListsResult(key, isLive(key)
+                ? this.getRevalidated(prefix, key, parameters) : this.get(prefix, key, jsonListsOpts));
+        CacheTag.mark(result.getValue() != null);
+        return result;
+    }
 
-        return new JsonListsResult(key, jsonListsOpts.get(key));
+
+    /**
+     * 남은 만료 시간 (초), 없는 키는 -2, 만료 없는 키는 -1
+     * @param key
+     * @return
+     */
+    public Long getExpire(String key){
+        return stringRedisTemplate.getExpire(key, TimeUnit.SECONDS);
     }
 
 
     public void setJsonListOpts(String key, List<Map<String,Object>> value, int time, TimeUnit timeUnit){
+        long start = System.nanoTime();
         jsonListOpts.set(key, value, time, timeUnit);
+        recordRedis(prefixOf(key), "set", start);
+        localCache.put(key, value);
+        if(isLive(key))
+            markFresh(this.generateRedisKey(key, freshSuffix), false);
+    }
+
+
+    /**
+     * 여러 키 삭제 (DEL), L1 에서도 제거 (늦게 들어온 이벤트로 바뀐 일자별 집계)
+     * @param keys
+     */
+    public void delete(Collection<String> keys){
+        if(keys.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        stringRedisTemplate.delete(keys);
+        recordRedis("multi", "del", start);
+        keys.forEach(localCache::evict);
+    }
+
+
+    /**
+     * 여러 키를 같은 만료 시간으로 한번에 저장 (SET 파이프라인, 일자별 롤업)
+     * 새로 만든 키라 다른 인스턴스의 L1 에 알리지 않음
+     * @param values
+     */
+    @SuppressWarnings("unchecked")
+    public void setJsonListOpts(Map<String, List<Map<String,Object>>> values, int time, TimeUnit timeUnit){
+        if(values.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        jsonListOpts.getOperations().executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ValueOperations<String, List<Map<String,Object>>> opts = (ValueOperations) operations.opsForValue();
+                values.forEach((key, value) -> opts.set(key, value, time, timeUnit));
+                return null;
+            }
+        });
+        recordRedis("multi", "mset", start);
+        values.forEach(localCache::putLocal);
     }
 
 
     public void setJsonListsOpts(String key, List<Map<String,List<Map<String,Object>>>> value, int time, TimeUnit timeUnit){
+        long start = System.nanoTime();
         jsonListsOpts.set(key, value, time, timeUnit);
+        recordRedis(prefixOf(key), "set", start);
+        localCache.put(key, value);
+        if(isLive(key))
+            markFresh(this.generateRedisKey(key, freshSuffix), false);
     }
 
     public void setIntegerOpts(String key, Integer value, int time, TimeUnit timeUnit){
+        long start = System.nanoTime();
         integerOpts.set(key, value, time, timeUnit);
+        recordRedis(prefixOf(key), "set", start);
+        localCache.put(key, value);
+        if(isLive(key))
+            markFresh(this.generateRedisKey(key, freshSuffix), false);
+    }
+
+
+    /**
+     * 키 존재 여부 (EXISTS, 파이프라인), 일자별 스케치와 순위 집합 확인용
+     * @param prefix
+     * @param keys
+     * @return keys 와 같은 순서의 존재 여부
+     */
+    public List<Boolean> exists(String prefix, List<String> keys){
+        if(keys.isEmpty())
+            return Collections.emptyList();
+
+        prefixes.add(prefix);
+        long start = System.nanoTime();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys)
+                connection.exists(key.getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+        recordRedis(prefix, "exists", start);
+
+        List<Boolean> exists = new ArrayList<>(keys.size());
+        for (Object result : results)
+            exists.add(Boolean.TRUE.equals(result));
+        return exists;
+    }
+
+    /**
+     * 스케치에 값 추가 (PFADD), 값이 없어도 빈 스케치를 만듦
+     * @param key
+     * @param values
+     * @param time 만료 시간
+     * @param timeUnit
+     */
+    public void addToSketch(String key, Collection<String> values, int time, TimeUnit timeUnit){
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        byte[][] args = new byte[values.size() + 1][];
+        args[0] = rawKey;
+        int i = 1;
+        for (String value : values)
+            args[i++] = value.getBytes(StandardCharsets.UTF_8);
+
+        long start = System.nanoTime();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.execute("PFADD", args);
+            return connection.pExpire(rawKey, timeUnit.toMillis(time));
+        });
+        recordRedis(prefixOf(key), "pfadd", start);
+    }
+
+    /**
+     * 다 만든 스케치를 키로 옮기고 만료 제거 (마감된 일자의 스케치)
+     * @param buildingKey
+     * @param key
+     */
+    public void publishSketch(String buildingKey, String key){
+        stringRedisTemplate.rename(buildingKey, key);
+        stringRedisTemplate.persist(key);
+    }
+
+    /**
+     * 여러 스케치 합집합의 원소 수 추정 (PFCOUNT), 레디스 안에서 병합하므로 기간과 무관하게 메모리 일정
+     * @param prefix
+     * @param keys
+     * @return
+     */
+    public long countSketches(String prefix, List<String> keys){
+        if(keys.isEmpty())
+            return 0;
+
+        long start = System.nanoTime();
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+        recordRedis(prefix, "pfcount", start);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 집계에만 쓰고 남기지 않는 스케치 삭제 (DEL), 로컬 캐시에 올라가지 않으므로 무효화 없음
+     * @param keys
+     */
+    public void discardSketches(Collection<String> keys){
+        if(!keys.isEmpty())
+            stringRedisTemplate.delete(keys);
+    }
+
+
+    /**
+     * 해시 카운터 증가 (HINCRBY, 파이프라인), 수집된 이벤트로 당일 집계 갱신
+     * @param increments 키 -> 필드 -> 증가량
+     * @param time 만료 시간
+     * @param timeUnit
+     */
+    public void incrementCounters(Map<String, Map<String, Long>> increments, int time, TimeUnit timeUnit){
+        if(increments.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            increments.forEach((key, counters) -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                counters.forEach((field, increment) -> connection.hIncrBy(rawKey, field.getBytes(StandardCharsets.UTF_8), increment));
+                connection.pExpire(rawKey, timeUnit.toMillis(time));
+            });
+            return null;
+        });
+        recordRedis("multi", "hincrby", start);
+    }
+
+    /**
+     * 해시 카운터 조회 (HGETALL)
+     * @param prefix
+     * @param key
+     * @return 필드 -> 값, 키가 없으면 null
+     */
+    public Map<String, Long> getCounters(String prefix, String key){
+        prefixes.add(prefix);
+        long start = System.nanoTime();
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        recordRedis(prefix, "hgetall", start);
+
+        if(entries == null || entries.isEmpty())
+            return null;
+        Map<String, Long> counters = new HashMap<>(entries.size());
+        entries.forEach((field, value) -> counters.put(field.toString(), Long.parseLong(value.toString())));
+        return counters;
+    }
+
+
+    /**
+     * 정렬 집합 점수 증가 (ZINCRBY, 파이프라인), 수집된 이벤트로 순위 갱신
+     * @param increments 키 -> 멤버 -> 증가량
+     * @param time 만료 시간
+     * @param timeUnit
+     */
+    public void incrementScores(Map<String, Map<String, Long>> increments, int time, TimeUnit timeUnit){
+        if(increments.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            increments.forEach((key, scores) -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                scores.forEach((member, increment) -> connection.zIncrBy(rawKey, increment, member.getBytes(StandardCharsets.UTF_8)));
+                connection.pExpire(rawKey, timeUnit.toMillis(time));
+            });
+            return null;
+        });
+        recordRedis("multi", "zincrby", start);
+    }
+
+    /**
+     * 정렬 집합을 통째로 교체 (DEL 후 ZADD, 파이프라인), 마감된 일자의 순위
+     * 빈 집합도 남도록 빈 멤버를 점수 0 으로 추가, topScores 에서 제외
+     * @param sets 키 -> 멤버 -> 점수
+     * @param time 만료 시간, 0 이면 만료 없음
+     * @param timeUnit
+     */
+    public void replaceScores(Map<String, Map<String, Long>> sets, int time, TimeUnit timeUnit){
+        if(sets.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            sets.forEach((key, scores) -> {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.del(rawKey);
+                connection.zAdd(rawKey, 0, emptyMember.getBytes(StandardCharsets.UTF_8));
+                scores.forEach((member, score) -> connection.zAdd(rawKey, score, member.getBytes(StandardCharsets.UTF_8)));
+                if(time > 0)
+                    connection.pExpire(rawKey, timeUnit.toMillis(time));
+            });
+            return null;
+        });
+        recordRedis("multi", "zadd", start);
+    }
+
+    /**
+     * 여러 정렬 집합을 합산한 상위 n 개 (ZUNIONSTORE 후 ZREVRANGE), 기간 순위 조회
+     * @param prefix
+     * @param keys
+     * @param n
+     * @return 점수 내림차순 (멤버, 점수)
+     */
+    public List<Map.Entry<String, Long>> topScores(String prefix, List<String> keys, int n){
+        if(keys.isEmpty() || n <= 0)
+            return Collections.emptyList();
+
+        prefixes.add(prefix);
+        ZSetOperations<String, String> zSetOpts = stringRedisTemplate.opsForZSet();
+        long start = System.nanoTime();
+        Set<ZSetOperations.TypedTuple<String>> tuples;
+        if(keys.size() == 1) {
+            tuples = zSetOpts.reverseRangeWithScores(keys.get(0), 0, n);
+        } else {
+            String unionKey = this.generateRedisKey(prefix, "union", UUID.randomUUID().toString());
+            zSetOpts.unionAndStore(keys.get(0), keys.subList(1, keys.size()), unionKey);
+            tuples = zSetOpts.reverseRangeWithScores(unionKey, 0, n);
+            stringRedisTemplate.delete(unionKey);
+        }
+        recordRedis(prefix, "zunion", start);
+
+        List<Map.Entry<String, Long>> top = new ArrayList<>(n);
+        if(tuples == null)
+            return top;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if(!emptyMember.equals(tuple.getValue()) && top.size() < n)
+                top.add(new AbstractMap.SimpleImmutableEntry<>(tuple.getValue(), tuple.getScore().longValue()));
+        }
+        return top;
+    }
+
+
+    /**
+     * 조회에 쓰인 prefix 중 키와 가장 길게 일치하는 prefix (메트릭 태그)
+     */
+    private String prefixOf(String key){
+        String matched = null;
+        for (String prefix : prefixes) {
+            if(key.startsWith(prefix + ":") && (matched == null || prefix.length() > matched.length()))
+                matched = prefix;
+        }
+        return matched == null ? "other" : matched;
+    }
+
+    /**
+     * prefix 별 캐시 조회 결과 (l1 / hit / stale / miss), 적중률 계산용
+     */
+    private void recordLookup(String prefix, String result){
+        meterRegistry.counter("statistics.cache.requests", "prefix", prefix, "result", result).increment();
+    }
+
+    private void recordRedis(String prefix, String operation, long start){
+        meterRegistry.timer("statistics.redis", "prefix", prefix, "operation", operation)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+
+    /**
+     * 같은 키의 캐시 미스를 한번만 계산 (single-flight)
+     * 동시에 들어온 요청은 먼저 들어온 요청의 결과를 기다림
+     * statistics.cache.lock.enabled 인 경우 레디스 락으로 인스턴스 간에도 한번만 계산
+     *
+     * @param key 캐시 키, null 이면 그대로 계산
+     * @param loader 값을 계산하고 캐시에 저장하는 작업
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> loadOnce(String key, Supplier<CompletableFuture<T>> loader){
+        if(key == null)
+            return loader.get();
+
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+        if(existing != null)
+            return existing;
+
+        CompletableFuture<T> loading;
+        try {
+            loading = lockEnabled ? loadLocked(key, loader) : loader.get();
+        } catch (RuntimeException e) {
+            loading = new CompletableFuture<>();
+            loading.completeExceptionally(e);
+        }
+
+        loading.whenComplete((value, e) -> {
+            inFlight.remove(key, created);
+            if(e != null)
+                created.completeExceptionally(e);
+            else
+                created.complete(value);
+        });
+        return created;
+    }
+
+    /**
+     * 락을 잡은 인스턴스만 계산, 나머지는 lease 동안 캐시에 값이 생기기를 기다린 후 직접 계산
+     */
+    private <T> CompletableFuture<T> loadLocked(String key, Supplier<CompletableFuture<T>> loader){
+        String lockKey = this.generateRedisKey(lockPrefix, key);
+
+        if(tryLock(lockKey)) {
+            return loader.get().whenComplete((value, e) -> unlock(lockKey));
+        }
+
+        CompletableFuture<T> waiting = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + lockLease;
+        waitForValue(key, loader, deadline, waiting);
+        return waiting;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void waitForValue(String key, Supplier<CompletableFuture<T>> loader, long deadline, CompletableFuture<T> waiting){
+        lockWaiter.schedule(() -> {
+            try {
+                Object value = this.get(prefixOf(key), key, objectOpts);
+                if (value != null) {
+                    waiting.complete((T) value);
+                } else if (System.currentTimeMillis() < deadline) {
+                    waitForValue(key, loader, deadline, waiting);
+                } else {
+                    loader.get().whenComplete((loaded, e) -> {
+                        if (e != null)
+                            waiting.completeExceptionally(e);
+                        else
+                            waiting.complete(loaded);
+                    });
+                }
+            } catch (RuntimeException e) {
+                waiting.completeExceptionally(e);
+            }
+        }, lockPollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean tryLock(String lockKey){
+        byte[] rawKey = lockKey.getBytes(StandardCharsets.UTF_8);
+        byte[] rawValue = instanceId.getBytes(StandardCharsets.UTF_8);
+
+        Boolean locked = stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.set(rawKey, rawValue, Expiration.milliseconds(lockLease), RedisStringCommands.SetOption.SET_IF_ABSENT));
+        return Boolean.TRUE.equals(locked);
+    }
+
+    private void unlock(String lockKey){
+        stringRedisTemplate.execute(unlockScript, Collections.singletonList(lockKey), instanceId);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        lockWaiter.shutdownNow();
     }
 }
@@ -0,0 +1,145 @@
+package com.kt.vd.dashboard;
+
+
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.Redis.RedisManager;
+import com.kt.vd.sell.SellController;
+import com.kt.vd.visit.VisitController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping(value = "/dashboard", method =  RequestMethod.POST )
+public class DashboardController {
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    RedisManager redisManager;
+    @Autowired
+    SellController sellController;
+    @Autowired
+    VisitController visitController;
+
+    static final private String sellType = "sell";
+    static final private String sellByTimeType = "sell:time";
+    static final private String visitType = "visit";
+    static final private String sellByLocType = "sell:loc";
+
+
+    /**
+     *
+     * Return the data of every widget in one response
+     * The cached results of all widgets are read with a single MGET. Only the misses go through their GET
+     * endpoint (counters, daily partials), and the searches those endpoints start are sent as one _msearch
+     *
+     * @param widgets
+     * @return results in the same order as the widgets, {"error": message} for a widget that failed
+     */
+    @RequestMapping
+    public CompletableFuture<List<Object>> getDashboard(@RequestBody List<Widget> widgets){
+
+        for (Widget widget : widgets)
+            validate(widget);
+
+        boolean[] cacheable = new boolean[widgets.size()];
+        List<String> cacheKeys = new ArrayList<>();
+        for (int i = 0; i < widgets.size(); i++) {
+            cacheable[i] = !redisManager.permitCache(widgets.get(i).getEnd());
+            if(cacheable[i])
+                cacheKeys.add(cacheKey(widgets.get(i)));
+        }
+        List<Object> cached = redisManager.multiGet(cacheKeys);
+
+        List<CompletableFuture<Object>> results = asyncSearch.batch(() -> {
+            List<CompletableFuture<Object>> futures = new ArrayList<>(widgets.size());
+            for (int i = 0, c = 0; i < widgets.size(); i++) {
+                Object value = cacheable[i] ? cached.get(c++) : null;
+                futures.add(value != null ? CompletableFuture.completedFuture(value)
+                        : load(widgets.get(i)).handle((loaded, e) -> e == null ? loaded : error(e)));
+            }
+            return futures;
+        });
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<Object> responseData = new ArrayList<>(results.size());
+            for (CompletableFuture<Object> result : results)
+                responseData.add(result.join());
+            return responseData;
+        });
+    }
+
+
+    private void validate(Widget widget){
+        if(widget.getType() == null || widget.getUser() == null || widget.getStart() == null || widget.getEnd() == null)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "type, user, start and end are required");
+
+        switch (widget.getType()) {
+            case sellType:
+            case sellByTimeType:
+            case visitType:
+                return;
+            case sellByLocType:
+                if(widget.getProvince() == null)
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "province is required for sell:loc");
+                return;
+            default:
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "unknown widget type " + widget.getType());
+        }
+    }
+
+    private String cacheKey(Widget widget){
+        Optional<String> machine = Optional.ofNullable(widget.getMachine());
+
+        switch (widget.getType()) {
+            case sellType:
+                return sellController.sellByDrinkKey(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+            case sellByTimeType:
+                return sellController.sellByTimeKey(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+            case visitType:
+                return visitController.visitByMachineKey(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+            default:
+                return sellController.sellByLocKey(widget.getProvince(), widget.getUser(),
+                        Optional.ofNullable(widget.getMunicipality()), widget.getStart(), widget.getEnd());
+        }
+    }
+
+    private CompletableFuture<Object> load(Widget widget){
+        Optional<String> machine = Optional.ofNullable(widget.getMachine());
+
+        CompletableFuture<?> future;
+        try {
+            switch (widget.getType()) {
+                case sellType:
+                    future = sellController.getSellByDrink(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+                    break;
+                case sellByTimeType:
+                    future = sellController.getSellByTime(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+                    break;
+                case visitType:
+                    future = visitController.getVisitByMachine(widget.getUser(), machine, widget.getStart(), widget.getEnd());
+                    break;
+                default:
+                    future = sellController.getSellByLoc(widget.getProvince(), widget.getUser(),
+                            Optional.ofNullable(widget.getMunicipality()), widget.getStart(), widget.getEnd());
+            }
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.thenApply(value -> (Object) value);
+    }
+
+    private static Map<String, Object> error(Throwable e){
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        String message = cause instanceof ResponseStatusException ? ((ResponseStatusException) cause).getReason() : cause.getMessage();
+        return Collections.singletonMap("error", message == null ? cause.getClass().getSimpleName() : message);
+    }
+}
@@ -0,0 +1,26 @@
+package com.kt.vd.dashboard;
+
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * One widget of the dashboard bundle
+ *
+ * type : "sell", "sell:time", "visit" or "sell:loc", same parameters as the matching GET endpoint
+ */
+@Data
+public class Widget {
+    private String type;
+    private String user;
+    private String machine;
+    private String province;
+    private String municipality;
+
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate start;
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    private LocalDate end;
+}
@@ -0,0 +1,338 @@
+package com.kt.vd.ingest;
+
+
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.ElasticSearch.LateDocuments;
+import com.kt.vd.ElasticSearch.QueryExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Bounded bulk pipeline in front of the cluster.
+ *
+ * Documents wait in a bounded queue and are sent in bulk requests of at most bulk-actions documents or
+ * bulk-size bytes, no later than flush-interval after the first one was queued. At most concurrent-requests
+ * bulks are in flight; when the cluster falls behind the queue fills up and offers are refused,
+ * which the endpoints turn into 429 so producers back off.
+ * Documents rejected by the cluster (429) are retried with backoff, other item failures are dropped and counted.
+ *
+ * When a bulk cannot reach the cluster, its documents and those that do not fit in the queue go to the
+ * WriteAheadBuffer instead, and only one bulk per probe-interval is tried until one succeeds.
+ * Producers hear about their documents once they are stored, indexed or in the disk buffer, never about
+ * documents that were dropped.
+ */
+@Component
+public class BulkIngester {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkIngester.class);
+
+    @Autowired
+    QueryExecutor queryExecutor;
+
+    @Autowired
+    IndexManager indexManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    WriteAheadBuffer writeAheadBuffer;
+
+    @Autowired
+    LateDocuments lateDocuments;
+
+    @Value("${statistics.ingest.enabled:true}")
+    boolean enabled;
+
+    @Value("${statistics.ingest.queue-capacity:100000}")
+    int queueCapacity;
+
+    @Value("${statistics.ingest.bulk-actions:1000}")
+    int bulkActions;
+
+    @Value("${statistics.ingest.bulk-size:5242880}")
+    long bulkSize;
+
+    @Value("${statistics.ingest.flush-interval:1000}")
+    long flushInterval;
+
+    @Value("${statistics.ingest.concurrent-requests:2}")
+    int concurrentRequests;
+
+    @Value("${statistics.ingest.max-retries:3}")
+    int maxRetries;
+
+    @Value("${statistics.ingest.retry-backoff:500}")
+    long retryBackoff;
+
+    @Value("${statistics.ingest.probe-interval:5000}")
+    long probeInterval;
+
+    private BlockingDeque<Pending> queue;
+    private Semaphore inFlight;
+    private ScheduledExecutorService scheduler;
+    private Thread dispatcher;
+    private volatile boolean running;
+    private volatile boolean reachable = true;
+    private volatile long nextProbe;
+
+
+    @PostConstruct
+    public void init(){
+        queue = new LinkedBlockingDeque<>(queueCapacity);
+        inFlight = new Semaphore(concurrentRequests);
+        meterRegistry.gaugeCollectionSize("statistics.ingest.queue", Tags.empty(), queue);
+        if(!enabled)
+            return;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ingest-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        dispatcher = new Thread(this::dispatch, "ingest-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Stop accepting and send what is queued
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if(!running)
+            return;
+
+        running = false;
+        dispatcher.join(TimeUnit.SECONDS.toMillis(30));
+        if(inFlight.tryAcquire(concurrentRequests, 30, TimeUnit.SECONDS))
+            inFlight.release(concurrentRequests);
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        if(!queue.isEmpty())
+            log.warn("{} queued documents were not indexed at shutdown", queue.size());
+    }
+
+
+    public boolean isRunning(){
+        return running;
+    }
+
+    /**
+     * Queue the documents, all or none
+     * @param requests
+     * @param onStored called off the request thread with the documents once they are indexed or in the disk buffer,
+     *                 in parts as bulks answer, never with documents that failed
+     * @return false when neither the queue nor, while the cluster is unreachable, the disk buffer has room for them
+     */
+    public boolean offer(List<IndexRequest> requests, Consumer<List<IndexRequest>> onStored){
+        synchronized (this) {
+            if(!running) {
+                count("rejected", requests.size());
+                return false;
+            }
+            if(queue.remainingCapacity() >= requests.size()) {
+                // retries are put back under the same lock, the room checked above is still there
+                for (IndexRequest request : requests)
+                    queue.offerLast(new Pending(request, onStored));
+                count("accepted", requests.size());
+                return true;
+            }
+            if(reachable || !writeAheadBuffer.append(requests)) {
+                count("rejected", requests.size());
+                return false;
+            }
+            count("buffered", requests.size());
+        }
+        scheduler.execute(() -> onStored.accept(requests));
+        return true;
+    }
+
+
+    private void dispatch(){
+        while(running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if(first == null)
+                    continue;
+
+                List<Pending> batch = new ArrayList<>();
+                batch.add(first);
+                long bytes = first.request.source().length();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+                while(batch.size() < bulkActions && bytes < bulkSize) {
+                    long wait = deadline - System.nanoTime();
+                    Pending next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if(next == null)
+                        break;
+                    batch.add(next);
+                    bytes += next.request.source().length();
+                }
+
+                if(!reachable) {
+                    if(System.nanoTime() - nextProbe < 0) {
+                        spill(batch);
+                        continue;
+                    }
+                    // this bulk probes the cluster, the next ones are buffered until it answers
+                    nextProbe = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeInterval);
+                }
+
+                inFlight.acquire();
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Ingest dispatch failed", e);
+            }
+        }
+    }
+
+    private void send(List<Pending> batch){
+        BulkRequest request = new BulkRequest();
+        for (Pending pending : batch)
+            request.add(pending.request);
+
+        long start = System.nanoTime();
+        queryExecutor.bulk(request).whenComplete((response, e) -> {
+            inFlight.release();
+            meterRegistry.timer("statistics.ingest.bulk").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            if(e != null) {
+                log.warn("Bulk of {} documents failed : {}", batch.size(), e.getMessage());
+                nextProbe = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeInterval);
+                reachable = false;
+                scheduler.execute(() -> spill(batch));
+                return;
+            }
+            reachable = true;
+
+            List<Pending> retries = new ArrayList<>();
+            List<Pending> indexed = new ArrayList<>(batch.size());
+            Set<String> indices = new HashSet<>();
+            int failed = 0;
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if(!items[i].isFailed()) {
+                    indices.add(items[i].getIndex());
+                    indexed.add(batch.get(i));
+                } else if(items[i].status() == RestStatus.TOO_MANY_REQUESTS) {
+                    retries.add(batch.get(i));
+                } else {
+                    if(failed++ == 0)
+                        log.warn("Indexing into {} failed : {}", items[i].getIndex(), items[i].getFailureMessage());
+                }
+            }
+
+            count("indexed", items.length - retries.size() - failed);
+            count("failed", failed);
+            indices.forEach(indexManager::add);
+            lateDocuments.indexed(requestsOf(indexed));
+            scheduler.execute(() -> stored(indexed));
+            retry(retries);
+        });
+    }
+
+    private void retry(List<Pending> batch){
+        List<Pending> retries = new ArrayList<>();
+        List<Pending> exhausted = new ArrayList<>();
+        for (Pending pending : batch) {
+            if(++pending.attempts > maxRetries || !running)
+                exhausted.add(pending);
+            else
+                retries.add(pending);
+        }
+        if(!exhausted.isEmpty())
+            scheduler.execute(() -> spill(exhausted));
+        if(retries.isEmpty())
+            return;
+
+        long delay = retryBackoff << Math.min(retries.get(0).attempts - 1, 10);
+        scheduler.schedule(() -> {
+            // ahead of new documents, they have waited longer
+            List<Pending> overflow = new ArrayList<>();
+            synchronized (BulkIngester.this) {
+                for (int i = retries.size() - 1; i >= 0; i--) {
+                    if(!queue.offerFirst(retries.get(i)))
+                        overflow.add(retries.get(i));
+                }
+            }
+            spill(overflow);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand documents that could not be sent to the disk buffer, dropped when it cannot take them
+     */
+    private void spill(List<Pending> batch){
+        if(batch.isEmpty())
+            return;
+
+        List<IndexRequest> requests = requestsOf(batch);
+        if(writeAheadBuffer.append(requests)) {
+            count("buffered", requests.size());
+            stored(batch);
+        } else {
+            log.warn("Dropped {} documents, the disk buffer cannot take them", requests.size());
+            count("failed", requests.size());
+        }
+    }
+
+    /**
+     * Hand each producer its stored documents, a failing producer does not affect the others
+     */
+    private void stored(List<Pending> batch){
+        Map<Consumer<List<IndexRequest>>, List<IndexRequest>> byProducer = new IdentityHashMap<>();
+        for (Pending pending : batch)
+            byProducer.computeIfAbsent(pending.onStored, onStored -> new ArrayList<>()).add(pending.request);
+
+        byProducer.forEach((onStored, requests) -> {
+            try {
+                onStored.accept(requests);
+            } catch (RuntimeException e) {
+                log.warn("Handling {} stored documents failed", requests.size(), e);
+            }
+        });
+    }
+
+    private static List<IndexRequest> requestsOf(List<Pending> batch){
+        List<IndexRequest> requests = new ArrayList<>(batch.size());
+        for (Pending pending : batch)
+            requests.add(pending.request);
+        return requests;
+    }
+
+    private void count(String result, int documents){
+        if(documents > 0)
+            meterRegistry.counter("statistics.ingest.documents", "result", result).increment(documents);
+    }
+
+
+    private static class Pending {
+        final IndexRequest request;
+        final Consumer<List<IndexRequest>> onStored;
+        int attempts;
+
+        Pending(IndexRequest request, Consumer<List<IndexRequest>> onStored) {
+            this.request = request;
+            this.onStored = onStored;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.kt.vd.ingest;
+
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * An event posted to /ingest, indexed into the daily index of its date and routed by user
+ */
+interface Event {
+
+    String getUser();
+
+    LocalDateTime getDate();
+
+    /**
+     * @return the reason the event is rejected, null when valid
+     */
+    String validate();
+
+    /**
+     * Document source, with the derived fields the read side aggregates on
+     */
+    Map<String, Object> toDocument();
+}
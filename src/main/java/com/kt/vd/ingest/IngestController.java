@@ -0,0 +1,118 @@
+package com.kt.vd.ingest;
+
+
+import com.kt.vd.sell.DrinkLeaderboard;
+import com.kt.vd.sell.SellCounter;
+import com.kt.vd.visit.VisitCounter;
+import org.elasticsearch.action.index.IndexRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping(value = "/ingest", method = RequestMethod.POST)
+public class IngestController {
+
+    @Autowired
+    BulkIngester bulkIngester;
+    @Autowired
+    DrinkLeaderboard drinkLeaderboard;
+    @Autowired
+    SellCounter sellCounter;
+    @Autowired
+    VisitCounter visitCounter;
+
+    @Value("${statistics.ingest.max-events:10000}")
+    int maxEvents;
+
+    @Value("${statistics.ingest.retry-after:1}")
+    int retryAfter;
+
+    static final private String sellIndex = "sell-";
+    static final private String visitIndex = "visit-";
+    static final private String temperatureIndex = "temperature-";
+    static final private String humidityIndex = "humidity-";
+    static final private String type = "log";
+
+
+    /**
+     *
+     * Queue sell events for indexing, and count today's stored events in the drink leaderboards and today's counters
+     * 202 when queued, 429 when the pipeline is full (retry after the Retry-After header), 503 when ingestion is off
+     *
+     * @param events
+     * @return number of queued events
+     */
+    @RequestMapping("/sell")
+    public ResponseEntity<Map<String, Object>> ingestSell(@RequestBody List<SellEvent> events){
+        return ingest(sellIndex, events, stored -> {
+            drinkLeaderboard.record(stored);
+            sellCounter.record(stored);
+        });
+    }
+
+    @RequestMapping("/visit")
+    public ResponseEntity<Map<String, Object>> ingestVisit(@RequestBody List<VisitEvent> events){
+        return ingest(visitIndex, events, visitCounter::record);
+    }
+
+    @RequestMapping("/temperature")
+    public ResponseEntity<Map<String, Object>> ingestTemperature(@RequestBody List<SensorEvent> events){
+        return ingest(temperatureIndex, events, stored -> {});
+    }
+
+    @RequestMapping("/humidity")
+    public ResponseEntity<Map<String, Object>> ingestHumidity(@RequestBody List<SensorEvent> events){
+        return ingest(humidityIndex, events, stored -> {});
+    }
+
+
+    /**
+     * @param onStored called with the events as their documents are indexed or buffered on disk,
+     *                 never for a refused request or a document that failed
+     */
+    private <E extends Event> ResponseEntity<Map<String, Object>> ingest(String index, List<E> events, Consumer<List<E>> onStored){
+        if(!bulkIngester.isRunning())
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "ingestion is not running");
+        if(events.size() > maxEvents)
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "at most " + maxEvents + " events per request");
+
+        LocalDateTime latest = LocalDateTime.now().plusDays(1);
+        List<IndexRequest> requests = new ArrayList<>(events.size());
+        Map<IndexRequest, E> eventOf = new IdentityHashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            E event = events.get(i);
+            String error = event.validate();
+            if(error == null && event.getDate().isAfter(latest))
+                error = "date is in the future";
+            if(error != null)
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "event " + i + " : " + error);
+
+            // the id makes retries and replays of the document overwrite it instead of duplicating it
+            IndexRequest request = new IndexRequest(index + event.getDate().toLocalDate().toString(), type)
+                    .id(UUID.randomUUID().toString())
+                    .routing(event.getUser())
+                    .source(event.toDocument());
+            requests.add(request);
+            eventOf.put(request, event);
+        }
+
+        boolean accepted = bulkIngester.offer(requests, stored ->
+                onStored.accept(stored.stream().map(eventOf::get).collect(Collectors.toList())));
+        if(!accepted)
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header("Retry-After", String.valueOf(retryAfter))
+                    .body(Collections.singletonMap("accepted", 0));
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Collections.singletonMap("accepted", requests.size()));
+    }
+}
@@ -0,0 +1,56 @@
+package com.kt.vd.ingest;
+
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fields shared by the events of a vending machine at a location, see SellEvent and VisitEvent
+ */
+@Data
+public abstract class MachineEvent implements Event {
+
+    static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private String user;
+    private String machine;
+    private String province;
+    private String municipality;
+    private String submunicipality;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime date;
+
+
+    @Override
+    public String validate(){
+        if(isEmpty(user) || isEmpty(machine) || date == null)
+            return "user, machine and date are required";
+        if(isEmpty(province) || isEmpty(municipality))
+            return "province and municipality are required";
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> toDocument(){
+        Map<String, Object> document = new HashMap<>();
+        document.put("user", user);
+        document.put("machine", machine);
+        document.put("province", province);
+        document.put("municipality", municipality);
+        if(submunicipality != null)
+            document.put("submunicipality", submunicipality);
+        document.put("hour_of_date", date.getHour());
+        document.put("date", date.format(formatter));
+        return document;
+    }
+
+    static boolean isEmpty(String value){
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,175 @@
+package com.kt.vd.ingest;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of memory-mapped segment files, read back oldest segment first.
+ *
+ * A record is [length][crc32][payload]. A segment ends at the first zero length (the unused, zero
+ * filled tail of the mapping) or at the first record whose checksum does not match, which is
+ * where a crash interrupted the last append.
+ * Not thread-safe, WriteAheadBuffer serializes the calls.
+ */
+class SegmentLog {
+
+    private static final String suffix = ".seg";
+    static final int headerSize = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean fsync;
+
+    private final List<Path> sealed = new ArrayList<>();
+    private long nextSequence;
+    private Path active;
+    private FileChannel activeChannel;
+    private MappedByteBuffer activeBuffer;
+    private int activeRecords;
+
+    private long bytes;
+    private long records;
+
+
+    /**
+     * Segments left by a previous run are sealed and kept for replay
+     */
+    SegmentLog(Path directory, int segmentSize, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.fsync = fsync;
+
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            sealed.addAll(files.filter(file -> file.getFileName().toString().endsWith(suffix)).sorted().collect(Collectors.toList()));
+        }
+        for (Path segment : sealed) {
+            List<byte[]> payloads = read(segment);
+            records += payloads.size();
+            for (byte[] payload : payloads)
+                bytes += headerSize + payload.length;
+        }
+        nextSequence = sealed.isEmpty() ? 0 : sequenceOf(sealed.get(sealed.size() - 1)) + 1;
+    }
+
+
+    /**
+     * @param payloads each must fit in a segment
+     */
+    void append(List<byte[]> payloads) throws IOException {
+        for (byte[] payload : payloads) {
+            if(headerSize + payload.length > segmentSize)
+                throw new IOException("Record of " + payload.length + " bytes is larger than a segment");
+            if(activeBuffer == null || activeBuffer.remaining() < headerSize + payload.length)
+                roll();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            activeBuffer.putInt(payload.length);
+            activeBuffer.putInt((int) crc.getValue());
+            activeBuffer.put(payload);
+            activeRecords++;
+            bytes += headerSize + payload.length;
+            records++;
+        }
+        if(fsync && activeBuffer != null)
+            activeBuffer.force();
+    }
+
+    /**
+     * Oldest segment with records, the active segment is sealed when it is the only one
+     */
+    Path oldest() throws IOException {
+        if(sealed.isEmpty() && activeRecords > 0)
+            seal();
+        return sealed.isEmpty() ? null : sealed.get(0);
+    }
+
+    /**
+     * Records of a segment in append order
+     */
+    List<byte[]> read(Path segment) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while(buffer.remaining() >= headerSize) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining())
+                    break;
+
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if((int) crc.getValue() != checksum)
+                    break;
+                payloads.add(payload);
+            }
+        }
+        return payloads;
+    }
+
+    /**
+     * Drop a replayed segment
+     * @param segment
+     * @param replayedRecords
+     * @param replayedBytes
+     */
+    void delete(Path segment, int replayedRecords, long replayedBytes) throws IOException {
+        sealed.remove(segment);
+        Files.deleteIfExists(segment);
+        records -= replayedRecords;
+        bytes -= replayedBytes;
+    }
+
+    long bytes(){
+        return bytes;
+    }
+
+    long records(){
+        return records;
+    }
+
+    void close() throws IOException {
+        if(activeBuffer != null)
+            activeBuffer.force();
+        if(activeChannel != null)
+            activeChannel.close();
+    }
+
+
+    private void roll() throws IOException {
+        if(activeBuffer != null)
+            seal();
+
+        active = directory.resolve(String.format("%020d%s", nextSequence++, suffix));
+        activeChannel = FileChannel.open(active, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeBuffer = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        activeRecords = 0;
+    }
+
+    private void seal() throws IOException {
+        activeBuffer.force();
+        activeChannel.close();
+        sealed.add(active);
+        active = null;
+        activeChannel = null;
+        activeBuffer = null;
+        activeRecords = 0;
+    }
+
+    private static long sequenceOf(Path segment){
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+    }
+}
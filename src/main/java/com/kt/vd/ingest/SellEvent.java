@@ -0,0 +1,34 @@
+package com.kt.vd.ingest;
+
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.util.Map;
+
+/**
+ * A sale of a vending machine, same fields as the sell- indices
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class SellEvent extends MachineEvent {
+
+    @JsonProperty("drink_type")
+    private String drinkType;
+
+
+    @Override
+    public String validate(){
+        if(isEmpty(drinkType))
+            return "drink_type is required";
+        return super.validate();
+    }
+
+    @Override
+    public Map<String, Object> toDocument(){
+        Map<String, Object> document = super.toDocument();
+        document.put("drink_type", drinkType);
+        return document;
+    }
+}
@@ -0,0 +1,47 @@
+package com.kt.vd.ingest;
+
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A temperature or humidity reading of a lane, same fields as the temperature- and humidity- indices
+ */
+@Data
+public class SensorEvent implements Event {
+
+    private String user;
+    private String machine;
+    private Integer lane;
+    private Float degree;
+
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime date;
+
+
+    @Override
+    public String validate(){
+        if(MachineEvent.isEmpty(user) || MachineEvent.isEmpty(machine) || date == null)
+            return "user, machine and date are required";
+        if(lane == null || lane < 1)
+            return "lane is required";
+        if(degree == null || degree.isNaN())
+            return "degree is required";
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> toDocument(){
+        Map<String, Object> document = new HashMap<>();
+        document.put("user", user);
+        document.put("machine", machine);
+        document.put("lane", lane);
+        document.put("degree", degree);
+        document.put("date", date.format(MachineEvent.formatter));
+        return document;
+    }
+}
@@ -0,0 +1,13 @@
+package com.kt.vd.ingest;
+
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * A customer visit of a vending machine, same fields as the visit- indices
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+public class VisitEvent extends MachineEvent {
+}
@@ -0,0 +1,280 @@
+package com.kt.vd.ingest;
+
+
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.ElasticSearch.LateDocuments;
+import com.kt.vd.ElasticSearch.QueryExecutor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Disk buffer of accepted documents while the cluster cannot be reached.
+ *
+ * BulkIngester appends documents it could not send; a replay thread sends the segments back oldest first
+ * once bulks succeed again, with at most replay-concurrency bulks in flight, and deletes a segment when all
+ * of its documents are indexed. Documents keep the id IngestController gave them, so a document sent by a bulk
+ * whose answer was lost and buffered, or a segment replayed twice (after a failed bulk or a restart),
+ * is indexed once.
+ */
+@Component
+public class WriteAheadBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadBuffer.class);
+
+    @Autowired
+    QueryExecutor queryExecutor;
+
+    @Autowired
+    IndexManager indexManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    LateDocuments lateDocuments;
+
+    @Value("${statistics.ingest.wal.enabled:true}")
+    boolean enabled;
+
+    @Value("${statistics.ingest.wal.dir:wal}")
+    String directory;
+
+    @Value("${statistics.ingest.wal.segment-size:67108864}")
+    int segmentSize;
+
+    @Value("${statistics.ingest.wal.max-bytes:1073741824}")
+    long maxBytes;
+
+    @Value("${statistics.ingest.wal.fsync:true}")
+    boolean fsync;
+
+    @Value("${statistics.ingest.wal.replay-concurrency:2}")
+    int replayConcurrency;
+
+    @Value("${statistics.ingest.wal.retry-interval:5000}")
+    long retryInterval;
+
+    @Value("${statistics.ingest.bulk-actions:1000}")
+    int bulkActions;
+
+    private SegmentLog segmentLog;
+    private Thread replayer;
+    private volatile boolean running;
+
+
+    @PostConstruct
+    public void init() throws IOException {
+        if(!enabled)
+            return;
+
+        segmentLog = new SegmentLog(Paths.get(directory), segmentSize, fsync);
+        meterRegistry.gauge("statistics.ingest.wal.bytes", Tags.empty(), this, buffer -> buffer.depth(true));
+        meterRegistry.gauge("statistics.ingest.wal.documents", Tags.empty(), this, buffer -> buffer.depth(false));
+        if(segmentLog.records() > 0)
+            log.info("{} buffered documents to replay from {}", segmentLog.records(), directory);
+
+        running = true;
+        replayer = new Thread(this::replay, "ingest-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException, IOException {
+        if(!running)
+            return;
+
+        running = false;
+        replayer.interrupt();
+        replayer.join(TimeUnit.SECONDS.toMillis(10));
+        synchronized (this) {
+            segmentLog.close();
+        }
+    }
+
+
+    /**
+     * Buffer documents on disk, durable when this returns true (with fsync)
+     * @param requests
+     * @return false when the buffer is disabled, full or cannot be written
+     */
+    public synchronized boolean append(List<IndexRequest> requests){
+        if(!running || segmentLog.bytes() >= maxBytes)
+            return false;
+
+        try {
+            List<byte[]> payloads = new ArrayList<>(requests.size());
+            for (IndexRequest request : requests)
+                payloads.add(encode(request));
+            segmentLog.append(payloads);
+        } catch (IOException e) {
+            log.error("Buffering {} documents failed", requests.size(), e);
+            return false;
+        }
+        meterRegistry.counter("statistics.ingest.wal.appended").increment(requests.size());
+        return true;
+    }
+
+
+    private void replay(){
+        while(running) {
+            try {
+                Path segment;
+                List<byte[]> payloads;
+                synchronized (this) {
+                    segment = segmentLog.oldest();
+                    payloads = segment == null ? null : segmentLog.read(segment);
+                }
+                if(segment == null) {
+                    Thread.sleep(retryInterval);
+                    continue;
+                }
+
+                if(!replay(payloads)) {
+                    Thread.sleep(retryInterval);
+                    continue;
+                }
+
+                long bytes = 0;
+                for (byte[] payload : payloads)
+                    bytes += SegmentLog.headerSize + payload.length;
+                synchronized (this) {
+                    segmentLog.delete(segment, payloads.size(), bytes);
+                }
+                log.info("Replayed {} buffered documents of {}", payloads.size(), segment.getFileName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Replaying buffered documents failed", e);
+                try {
+                    Thread.sleep(retryInterval);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the documents of a segment in bulks, replay-concurrency at a time
+     * @return false when a bulk could not be delivered, the segment is replayed again later
+     */
+    private boolean replay(List<byte[]> payloads) throws IOException, InterruptedException {
+        Semaphore permits = new Semaphore(replayConcurrency);
+        AtomicBoolean delivered = new AtomicBoolean(true);
+        List<CompletableFuture<?>> bulks = new ArrayList<>();
+
+        for (int start = 0; start < payloads.size() && delivered.get(); start += bulkActions) {
+            BulkRequest request = new BulkRequest();
+            List<IndexRequest> requests = new ArrayList<>(bulkActions);
+            for (byte[] payload : payloads.subList(start, Math.min(start + bulkActions, payloads.size())))
+                requests.add(decode(payload));
+            requests.forEach(request::add);
+
+            permits.acquire();
+            bulks.add(queryExecutor.bulk(request).whenComplete((response, e) -> {
+                permits.release();
+                if(e != null) {
+                    delivered.set(false);
+                    return;
+                }
+
+                int failed = 0;
+                List<IndexRequest> indexed = new ArrayList<>(requests.size());
+                BulkItemResponse[] items = response.getItems();
+                for (int i = 0; i < items.length; i++) {
+                    BulkItemResponse item = items[i];
+                    if(!item.isFailed()) {
+                        indexManager.add(item.getIndex());
+                        indexed.add(requests.get(i));
+                    } else if(item.status() == RestStatus.TOO_MANY_REQUESTS || item.status().getStatus() >= 500) {
+                        delivered.set(false);
+                    } else {
+                        failed++;
+                    }
+                }
+                // replayed documents are usually of closed days
+                lateDocuments.indexed(indexed);
+                // a document the cluster refuses (ex. mapping conflict) would block the buffer forever
+                if(failed > 0)
+                    meterRegistry.counter("statistics.ingest.documents", "result", "failed").increment(failed);
+                meterRegistry.counter("statistics.ingest.wal.replayed").increment(response.getItems().length - failed);
+            }));
+        }
+
+        for (CompletableFuture<?> bulk : bulks) {
+            try {
+                bulk.join();
+            } catch (RuntimeException e) {
+                delivered.set(false);
+            }
+        }
+        return delivered.get();
+    }
+
+    private double depth(boolean bytes){
+        synchronized (this) {
+            return bytes ? segmentLog.bytes() : segmentLog.records();
+        }
+    }
+
+    private static byte[] encode(IndexRequest request) throws IOException {
+        // ids are given at ingestion, a document without one still gets one for the replays
+        if(request.id() == null)
+            request.id(UUID.randomUUID().toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(request.source().length() + 128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(request.index());
+            out.writeUTF(request.type());
+            out.writeUTF(request.id());
+            out.writeUTF(request.routing() == null ? "" : request.routing());
+            byte[] source = request.getContentType() == XContentType.JSON
+                    ? BytesReference.toBytes(request.source())
+                    : XContentHelper.convertToJson(request.source(), false, request.getContentType()).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(source.length);
+            out.write(source);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static IndexRequest decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            IndexRequest request = new IndexRequest(in.readUTF(), in.readUTF(), in.readUTF());
+            String routing = in.readUTF();
+            if(!routing.isEmpty())
+                request.routing(routing);
+
+            byte[] source = new byte[in.readInt()];
+            in.readFully(source);
+            return request.source(source, XContentType.JSON);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.kt.vd.metrics;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Whether the current request was answered from the cache, added as the "cache" tag of its metrics
+ *
+ * none : not cacheable, hit / miss : range cache lookup, partial : some of several lookups missed
+ */
+public final class CacheTag {
+
+    static final String attribute = CacheTag.class.getName();
+
+    private CacheTag() {
+    }
+
+
+    /**
+     * Record a cache lookup made on the request thread, ignored outside of a request (warmer, rollup)
+     * @param hit
+     */
+    public static void mark(boolean hit){
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes == null)
+            return;
+
+        String result = hit ? "hit" : "miss";
+        Object previous = attributes.getAttribute(attribute, RequestAttributes.SCOPE_REQUEST);
+        if(previous != null && !previous.equals(result))
+            result = "partial";
+        attributes.setAttribute(attribute, result, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    public static String of(HttpServletRequest request){
+        Object result = request.getAttribute(attribute);
+        return result == null ? "none" : result.toString();
+    }
+}
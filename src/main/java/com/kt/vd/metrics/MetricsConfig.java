@@ -0,0 +1,28 @@
+package com.kt.vd.metrics;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.actuate.metrics.web.servlet.DefaultWebMvcTagsProvider;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTagsProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * http.server.requests with the cache result of the request
+     */
+    @Bean
+    public WebMvcTagsProvider webMvcTagsProvider(){
+        return new DefaultWebMvcTagsProvider() {
+            @Override
+            public Iterable<Tag> httpRequestTags(HttpServletRequest request, HttpServletResponse response, Object handler, Throwable exception) {
+                return Tags.concat(super.httpRequestTags(request, response, handler, exception), "cache", CacheTag.of(request));
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package com.kt.vd.result;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * One bucket of a terms aggregation, e.g. {"drink_type": "coke", "sell": 12}
+ *
+ * Stays a Map so the controllers, the cache and the response keep the same shape,
+ * but holds its two fields directly instead of a HashMap and is written with the streaming generator.
+ * Values read back from redis are plain maps with the same entries.
+ */
+@JsonSerialize(using = TermCount.Serializer.class)
+public final class TermCount extends AbstractMap<String, Object> {
+
+    private final String keyName;
+    private final String countName;
+    private final Object key;
+    private final long count;
+
+    public TermCount(String keyName, String countName, Object key, long count) {
+        this.keyName = keyName;
+        this.countName = countName;
+        this.key = key;
+        this.count = count;
+    }
+
+
+    /**
+     * Buckets of a terms aggregation in their order
+     * @param keyName
+     * @param countName
+     * @param terms
+     * @return
+     */
+    public static List<Map<String, Object>> fromBuckets(String keyName, String countName, Terms terms){
+        List<? extends Terms.Bucket> buckets = terms.getBuckets();
+        List<Map<String, Object>> counts = new ArrayList<>(buckets.size());
+        for (Terms.Bucket bucket : buckets) {
+            counts.add(new TermCount(keyName, countName, bucket.getKey(), bucket.getDocCount()));
+        }
+        return counts;
+    }
+
+    /**
+     * Merged counts already in response order
+     * @param keyName
+     * @param countName
+     * @param entries
+     * @return
+     */
+    public static List<Map<String, Object>> fromEntries(String keyName, String countName, List<? extends Map.Entry<?, Long>> entries){
+        List<Map<String, Object>> counts = new ArrayList<>(entries.size());
+        for (Map.Entry<?, Long> entry : entries) {
+            counts.add(new TermCount(keyName, countName, entry.getKey(), entry.getValue()));
+        }
+        return counts;
+    }
+
+
+    public Object getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public Object get(Object name) {
+        if(keyName.equals(name))
+            return key;
+        if(countName.equals(name))
+            return count;
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return keyName.equals(name) || countName.equals(name);
+    }
+
+    @Override
+    public int size() {
+        return 2;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Set<Entry<String, Object>> entries = new LinkedHashSet<>(4);
+        entries.add(new SimpleImmutableEntry<>(keyName, key));
+        entries.add(new SimpleImmutableEntry<>(countName, count));
+        return Collections.unmodifiableSet(entries);
+    }
+
+
+    public static class Serializer extends StdSerializer<TermCount> {
+
+        public Serializer() {
+            super(TermCount.class);
+        }
+
+        @Override
+        public void serialize(TermCount value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            gen.writeFieldName(value.keyName);
+            if(value.key instanceof Double || value.key instanceof Float)
+                gen.writeNumber(((Number) value.key).doubleValue());
+            else if(value.key instanceof Number)
+                gen.writeNumber(((Number) value.key).longValue());
+            else
+                gen.writeString(String.valueOf(value.key));
+            gen.writeNumberField(value.countName, value.count);
+            gen.writeEndObject();
+        }
+    }
+}
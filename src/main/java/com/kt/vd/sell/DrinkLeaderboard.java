@@ -0,0 +1,207 @@
+package com.kt.vd.sell;
+
+
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.Redis.RedisManager;
+import com.kt.vd.ingest.SellEvent;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Drinks ranked by sales, one redis sorted set per scope (all, user, province) and day.
+ *
+ * When every event goes through /ingest (statistics.ingest.authoritative), ingested sell events of today increment
+ * today's sets as they arrive. Those sets expire once the day settles, the rollup replaces the set of a closed day
+ * with the counts of its index, and a settled day without a set is built from its index on first use.
+ * Today without ingested events, and a day not settled yet, is read from its index into a short-lived snapshot.
+ * A top-N over a range is a ZUNIONSTORE of its day sets, whatever the number of days.
+ */
+@Component
+public class DrinkLeaderboard {
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    IndexManager indexManager;
+    @Autowired
+    RedisManager redisManager;
+    @Autowired
+    DailyAggregator dailyAggregator;
+
+    @Value("${statistics.leaderboard.snapshot-ttl:60}")
+    int snapshotTtl;
+
+    @Value("${statistics.ingest.authoritative:false}")
+    boolean authoritative;
+
+    static final private String boardPrefix = "sell:board";
+    static final private String snapshotSuffix = "snapshot";
+
+    public static final String all = "all";
+    public static final String user = "user";
+    public static final String province = "province";
+
+
+    /**
+     * Count ingested sales of today in today's sets, nothing unless ingestion is authoritative
+     * Late events of closed days are left to the rollup, an increment would create a partial set of that day
+     * @param events
+     */
+    public void record(List<SellEvent> events){
+        if(!authoritative)
+            return;
+
+        LocalDate today = LocalDate.now();
+        Map<String, Map<String, Long>> increments = new HashMap<>();
+        for (SellEvent event : events) {
+            LocalDate day = event.getDate().toLocalDate();
+            if(!day.equals(today))
+                continue;
+            increment(increments, boardKey(all, null, day), event.getDrinkType());
+            increment(increments, boardKey(user, event.getUser(), day), event.getDrinkType());
+            increment(increments, boardKey(province, event.getProvince(), day), event.getDrinkType());
+        }
+        // gone once the day settles, the closed day is then read from its index
+        long ttl = Math.max(1, Duration.between(LocalDateTime.now(), dailyAggregator.settledAt(today)).toMillis());
+        redisManager.incrementScores(increments, (int) ttl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replace the sets of a closed day, see SellRollup
+     * @param sets redis key -> drink -> sales
+     */
+    public void replace(Map<String, Map<String, Long>> sets){
+        redisManager.replaceScores(sets, 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     *
+     * Best selling drinks between startDate and endDate
+     *
+     * @param scope all, user or province
+     * @param value user or province, null for all
+     * @param top
+     * @param startDate
+     * @param endDate
+     * @return (drink, sales) by sales desc
+     */
+    public CompletableFuture<List<Map.Entry<String, Long>>> top(String scope, String value, int top, LocalDate startDate, LocalDate endDate){
+        LocalDate today = LocalDate.now();
+        if(endDate.isAfter(today))
+            endDate = today;
+
+        List<LocalDate> days = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for(LocalDate day = startDate; !day.isAfter(endDate); day = day.plusDays(1)) {
+            if(!indexManager.exists(SellController.index + day.toString()))
+                continue;
+            days.add(day);
+            keys.add(boardKey(scope, value, day));
+        }
+
+        // today's set only exists when events are ingested, otherwise its snapshot
+        int todayIndex = days.indexOf(today);
+        if(todayIndex >= 0 && !redisManager.exists(boardPrefix, Collections.singletonList(keys.get(todayIndex))).get(0))
+            keys.set(todayIndex, redisManager.generateRedisKey(keys.get(todayIndex), snapshotSuffix));
+
+        List<LocalDate> missingDays = new ArrayList<>();
+        List<Boolean> exists = redisManager.exists(boardPrefix, keys);
+        for (int i = 0; i < days.size(); i++) {
+            if(!exists.get(i))
+                missingDays.add(days.get(i));
+        }
+        if(missingDays.isEmpty())
+            return CompletableFuture.completedFuture(redisManager.topScores(boardPrefix, keys, top));
+
+        return countByDay(scope, value, missingDays).thenApply(counts -> {
+            Map<String, Map<String, Long>> closedSets = new HashMap<>();
+            Map<String, Map<String, Long>> snapshots = new HashMap<>();
+            for (LocalDate day : missingDays) {
+                String key = keys.get(days.indexOf(day));
+                Map<String, Long> scores = counts.getOrDefault(day, Collections.emptyMap());
+                if(dailyAggregator.settled(day))
+                    closedSets.put(key, scores);
+                else
+                    snapshots.put(key, scores);
+            }
+            replace(closedSets);
+            redisManager.replaceScores(snapshots, snapshotTtl, TimeUnit.SECONDS);
+
+            return redisManager.topScores(boardPrefix, keys, top);
+        });
+    }
+
+    /**
+     * Redis key of the set of a scope and day
+     * @param scope
+     * @param value null for all
+     * @param day
+     * @return
+     */
+    public String boardKey(String scope, String value, LocalDate day){
+        return value == null
+                ? redisManager.generateRedisKey(boardPrefix, scope, day.toString())
+                : redisManager.generateRedisKey(boardPrefix, scope, value, day.toString());
+    }
+
+
+    /**
+     * Sales per drink of the given days, one search bucketed by index
+     */
+    private CompletableFuture<Map<LocalDate, Map<String, Long>>> countByDay(String scope, String value, List<LocalDate> days){
+        String[] index_names = days.stream().map(day -> SellController.index + day.toString()).toArray(String[]::new);
+
+        QueryBuilder query = user.equals(scope) ? termQuery("user", value)
+                : province.equals(scope) ? termQuery("province", value)
+                : matchAllQuery();
+
+        NativeSearchQueryBuilder queryBuilder = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(query))
+                .withIndices(index_names)
+                .addAggregation(AggregationBuilders.terms("day").field("_index").size(index_names.length)
+                        .subAggregation(AggregationBuilders.terms("agg").field("drink_type").size(SellController.drinkAllSize)));
+        if(user.equals(scope))
+            queryBuilder.withRoute(value);
+
+        return asyncSearch.aggregate(queryBuilder.build()).thenApply(aggregations -> {
+            Terms dayAgg = aggregations.get("day");
+
+            Map<LocalDate, Map<String, Long>> counts = new HashMap<>();
+            for (Terms.Bucket dayBucket : dayAgg.getBuckets()) {
+                LocalDate day = LocalDate.parse(dayBucket.getKeyAsString().substring(SellController.index.length()));
+                counts.put(day, toScores(dayBucket.getAggregations().get("agg")));
+            }
+            return counts;
+        });
+    }
+
+    /**
+     * Drink -> sales of a drink_type terms aggregation
+     */
+    static Map<String, Long> toScores(Terms drinks){
+        Map<String, Long> scores = new HashMap<>();
+        for (Terms.Bucket drink : drinks.getBuckets())
+            scores.put(drink.getKeyAsString(), drink.getDocCount());
+        return scores;
+    }
+
+    private static void increment(Map<String, Map<String, Long>> increments, String key, String drink){
+        increments.computeIfAbsent(key, k -> new HashMap<>()).merge(drink, 1L, Long::sum);
+    }
+}
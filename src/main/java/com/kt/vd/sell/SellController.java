@@ -1,26 +1,27 @@
 package com.kt.vd.sell;
 
 
-import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ElasticSearch.DistinctCounter;
+import com.kt.vd.ElasticSearch.KeysetAggregator;
+import com.kt.vd.Redis.CacheWarmer;
 import com.kt.vd.Redis.IntegerResult;
 import com.kt.vd.Redis.JsonListResult;
 import com.kt.vd.Redis.JsonListsResult;
 import com.kt.vd.Redis.RedisManager;
-import org.elasticsearch.action.search.SearchResponse;
+import com.kt.vd.result.TermCount;
 import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.Aggregations;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
-import org.springframework.data.elasticsearch.core.ResultsExtractor;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
-import org.springframework.data.elasticsearch.core.query.SearchQuery;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
@@ -31,17 +32,73 @@ import static org.elasticsearch.index.query.QueryBuilders.constantScoreQuery;
 @RequestMapping(value = "/sell", method =  RequestMethod.GET )
 public class SellController {
 
-    @Autowired
-    ElasticsearchTemplate esTemplate;
     @Autowired
     RedisManager redisManager;
+    @Autowired
+    DailyAggregator dailyAggregator;
+    @Autowired
+    CacheWarmer cacheWarmer;
+    @Autowired
+    KeysetAggregator keysetAggregator;
+    @Autowired
+    DistinctCounter distinctCounter;
+    @Autowired
+    DrinkLeaderboard drinkLeaderboard;
 
-    static final private String index = "sell-";
+    static final String index = "sell-";
     static final private String sellByDrinkPrefix = "sell";
     static final private String sellByTimePrefix = "sell:time";
     static final private String sellDrinkPrefix = "sell:drink";
     static final private String sellByLocPrefix = "sell:loc";
     static final private String sellByDrinkAllPrefix = "sell:all";
+    static final private String sellTopByUserPrefix = "sell:top:user";
+    static final private String sellTopByProvincePrefix = "sell:top:province";
+    static final private String sellDrinkByLocPrefix = "sell:loc:drink";
+    static final private String sellMachinesPrefix = "sell:distinct";
+    static final String sellMachinesDailyPrefix = "sell:distinct:daily";
+    static final String sellByDrinkDailyPrefix = "sell:daily";
+    static final String sellByTimeDailyPrefix = "sell:time:daily";
+    static final String sellByLocDailyPrefix = "sell:loc:daily";
+    static final String sellDrinkDailyPrefix = "sell:drink:daily";
+    static final String sellDrinkByLocDailyPrefix = "sell:loc:drink:daily";
+
+    /*
+     * Terms kept per day in the partial aggregates, shared with SellRollup
+     */
+    static final int drinkSize = 50;
+    static final int hourSize = 24;
+    static final int drinkAllSize = 100;
+    static final int locSize = 100;
+    static final int locResponseSize = 10;
+
+    @PostConstruct
+    public void registerWarmers(){
+        cacheWarmer.register(sellByDrinkPrefix, (key, parameters, start, end) ->
+                loadSellByDrink(parameters.get(0), optional(parameters, 1), start, end, key));
+        cacheWarmer.register(sellByTimePrefix, (key, parameters, start, end) ->
+                loadSellByTime(parameters.get(0), optional(parameters, 1), start, end, key));
+        cacheWarmer.register(sellDrinkPrefix, (key, parameters, start, end) ->
+                loadSellDrink(parameters.get(1), optional(parameters, 2), parameters.get(0), start, end, key));
+        cacheWarmer.register(sellByLocPrefix, (key, parameters, start, end) -> parameters.size() > 2
+                ? loadSellByLoc(parameters.get(0), parameters.get(2), Optional.of(parameters.get(1)), start, end, key)
+                : loadSellByLoc(parameters.get(0), parameters.get(1), Optional.empty(), start, end, key));
+        cacheWarmer.register(sellDrinkByLocPrefix, (key, parameters, start, end) -> parameters.size() > 3
+                ? loadSellDrinkByLoc(parameters.get(2), parameters.get(0), parameters.get(3), Optional.of(parameters.get(1)), start, end, key)
+                : loadSellDrinkByLoc(parameters.get(1), parameters.get(0), parameters.get(2), Optional.empty(), start, end, key));
+        cacheWarmer.register(sellByDrinkAllPrefix, (key, parameters, start, end) ->
+                loadSellByDrinkAll(Integer.parseInt(parameters.get(0)), start, end, key));
+        cacheWarmer.register(sellTopByUserPrefix, (key, parameters, start, end) ->
+                loadTopDrinks(DrinkLeaderboard.user, parameters.get(0), Integer.parseInt(parameters.get(1)), start, end, key));
+        cacheWarmer.register(sellTopByProvincePrefix, (key, parameters, start, end) ->
+                loadTopDrinks(DrinkLeaderboard.province, parameters.get(0), Integer.parseInt(parameters.get(1)), start, end, key));
+        cacheWarmer.register(sellMachinesPrefix, (key, parameters, start, end) ->
+                loadSellMachines(parameters.get(1), parameters.get(0), start, end, key));
+    }
+
+    private static Optional<String> optional(List<String> parameters, int index){
+        return parameters.size() > index ? Optional.of(parameters.get(index)) : Optional.empty();
+    }
+
 
     /**
      * Return sales volume according to the type of beverage
@@ -53,11 +110,10 @@ public class SellController {
      * @return
      */
     @RequestMapping(value = {"/{user}", "/{user}/{machine}"})
-    public List<Map<String, Object>> getSellByDrink(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
+    public CompletableFuture<List<Map<String, Object>>> getSellByDrink(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
                                                     @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                     @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
 
-        boolean cacheFlag = false;
         JsonListResult cacheData = null;
 
         if(!redisManager.permitCache(end)){
@@ -67,49 +123,32 @@ public class SellController {
                 cacheData = redisManager.getJsonListResult(sellByDrinkPrefix, user,  start.toString(), end.toString());
             }
             if(cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
+        return redisManager.loadOnce(cacheKey, () -> loadSellByDrink(user, machine, start, end, cacheKey));
+    }
 
+    /**
+     * Cache keys of getSellByDrink, getSellByTime and getSellByLoc, read together by the dashboard
+     */
+    public String sellByDrinkKey(String user, Optional<String> machine, LocalDate start, LocalDate end){
+        return machine.isPresent()
+                ? redisManager.generateRedisKey(sellByDrinkPrefix, user, machine.get(), start.toString(), end.toString())
+                : redisManager.generateRedisKey(sellByDrinkPrefix, user, start.toString(), end.toString());
+    }
 
-        String[] index_names = IndexManager.generateIndex(index, start, end);
-
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
-        if (machine.isPresent())
-            boolQuery.must(termQuery("machine", machine.get()));
-
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("agg").field("drink_type").size(50))
-                .build();
-
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
-        Terms agg = aggregations.get("agg");
-
-
-        List<Map<String, Object>> responseData = new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("drink_type", entry.getKey());
-            data.put("sell", entry.getDocCount());
-
-            responseData.add(data);
-        }
-
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
-        }
+    public String sellByTimeKey(String user, Optional<String> machine, LocalDate start, LocalDate end){
+        return machine.isPresent()
+                ? redisManager.generateRedisKey(sellByTimePrefix, user, machine.get(), start.toString(), end.toString())
+                : redisManager.generateRedisKey(sellByTimePrefix, user, start.toString(), end.toString());
+    }
 
-        return responseData;
+    public String sellByLocKey(String province, String user, Optional<String> municipality, LocalDate start, LocalDate end){
+        return municipality.isPresent()
+                ? redisManager.generateRedisKey(sellByLocPrefix, province, municipality.get(), user, start.toString(), end.toString())
+                : redisManager.generateRedisKey(sellByLocPrefix, province, user, start.toString(), end.toString());
     }
 
     /**
@@ -122,13 +161,11 @@ public class SellController {
      * @return
      */
     @RequestMapping(value = {"/time/{user}", "/time/{user}/{machine}"})
-    public List<Map<String, Object>> getSellByTime(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
+    public CompletableFuture<List<Map<String, Object>>> getSellByTime(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
 
 
-        boolean cacheFlag = false;
-
         JsonListResult cacheData= null;
 
         if(!redisManager.permitCache(end)) {
@@ -138,50 +175,11 @@ public class SellController {
                 cacheData = redisManager.getJsonListResult(sellByTimePrefix, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
-        }
-
-        String[] index_names = IndexManager.generateIndex(index, start, end);
-
-
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
-        if (machine.isPresent())
-            boolQuery.must(termQuery("machine", machine.get()));
-
-
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("agg").field("hour_of_date").size(24).order(Terms.Order.term(true)))
-                .build();
-
-
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
-        Terms agg = aggregations.get("agg");
-
-
-        List<Map<String, Object>> responseData = new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("hour", entry.getKey());
-            data.put("count", entry.getDocCount());
-
-            responseData.add(data);
-        }
-
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        return responseData;
+        return redisManager.loadOnce(cacheKey, () -> loadSellByTime(user, machine, start, end, cacheKey));
     }
 
 
@@ -196,12 +194,11 @@ public class SellController {
      * @return
      */
     @RequestMapping(value = {"/drink/{user}/{drink}", "/drink/{user}/{machine}/{drink}"})
-    public Integer getSellDrink(@PathVariable String user, @PathVariable(required = false, value = "machine") Optional<String> machine,
+    public CompletableFuture<Integer> getSellDrink(@PathVariable String user, @PathVariable(required = false, value = "machine") Optional<String> machine,
                              @PathVariable(value = "drink") String drink,
                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                              @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
 
-        boolean cacheFlag = false;
         IntegerResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
@@ -211,33 +208,11 @@ public class SellController {
                 cacheData = redisManager.getIntegerResult(sellDrinkPrefix, drink, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
-        }
-
-        String[] index_names = IndexManager.generateIndex(index, start, end);
-
-
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
-                        .must(termQuery("drink_type", drink));
-        if (machine.isPresent())
-            boolQuery.must(termQuery("machine", machine.get()));
-
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .build();
-
-
-        Long count = esTemplate.count(searchQuery);
-
-        if(cacheFlag){
-            redisManager.setIntegerOpts(cacheData.getKey(), count.intValue(), 1, TimeUnit.HOURS);
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        return count.intValue();
+        return redisManager.loadOnce(cacheKey, () -> loadSellDrink(user, machine, drink, start, end, cacheKey));
     }
 
 
@@ -252,13 +227,11 @@ public class SellController {
      * @return
      */
     @RequestMapping(value = {"loc/{province}/{user}", "loc/{province}/{municipality}/{user}"})
-    public List<Map<String, List<Map<String, Object>>>> getSellByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
+    public CompletableFuture<List<Map<String, List<Map<String, Object>>>>> getSellByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
                                                                      @PathVariable(required = false, value = "municipality") Optional<String> municipality,
                                                                      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                                      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
 
-        boolean cacheFlag = false;
-
         JsonListsResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
@@ -268,63 +241,11 @@ public class SellController {
                 cacheData = redisManager.getJsonListsResult(sellByLocPrefix, province, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        String agg_term = "municipality";
-        String[] index_names = IndexManager.generateIndex(index, start, end);
-
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
-                .must(termQuery("province", province));
-        if (municipality.isPresent()) {
-            boolQuery.must(termQuery("municipality", municipality.get()));
-            agg_term = "submunicipality";
-        }
-
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("main").field(agg_term)
-                        .subAggregation(AggregationBuilders.terms("sub").field("drink_type")))
-                .build();
-
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
-
-        Terms mainAggs = aggregations.get("main");
-        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
-        String mainKey;
-
-        for (Terms.Bucket subAgg : mainAggs.getBuckets()) {
-            Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
-            List<Map<String, Object>> subData = new ArrayList<>();
-
-            Terms subTerms = subAgg.getAggregations().get("sub");
-
-            for (Terms.Bucket entry : subTerms.getBuckets()) {
-                Map<String, Object> data = new HashMap<>();
-                data.put("drink", entry.getKey());
-                data.put("count", entry.getDocCount());
-
-                subData.add(data);
-            }
-            mainData.put(subAgg.getKeyAsString(), subData);
-            responseData.add(mainData);
-        }
-
-
-        if(cacheFlag){
-            redisManager.setJsonListsOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
-        }
-
-        return responseData;
+        return redisManager.loadOnce(cacheKey, () -> loadSellByLoc(province, user, municipality, start, end, cacheKey));
     }
 
     /**
@@ -340,125 +261,361 @@ public class SellController {
      * @return
      */
     @RequestMapping(value = {"/{drink}/loc/{province}/{user}", "/{drink}/loc/{province}/{municipality}/{user}"})
-    public List<Map<String,Object>> getSellDrinkByLoc(@PathVariable String drink,
+    public CompletableFuture<List<Map<String,Object>>> getSellDrinkByLoc(@PathVariable String drink,
                                                       @PathVariable String province, @PathVariable(value = "user") String user,
                                                       @PathVariable(required = false, value = "municipality") Optional<String> municipality,
                                                       @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                       @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
 
-        boolean cacheFlag = false;
-
         JsonListResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
             if (municipality.isPresent()) {
-                cacheData = redisManager.getJsonListResult(sellByLocPrefix, province, municipality.get(), drink, start.toString(), end.toString());
+                cacheData = redisManager.getJsonListResult(sellDrinkByLocPrefix, province, municipality.get(), drink, user, start.toString(), end.toString());
             } else {
-                cacheData = redisManager.getJsonListResult(sellByLocPrefix, province, drink, start.toString(), end.toString());
+                cacheData = redisManager.getJsonListResult(sellDrinkByLocPrefix, province, drink, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        String agg_term = "municipality";
-        String[] index_names = IndexManager.generateIndex(index, start, end);
+        return redisManager.loadOnce(cacheKey, () -> loadSellDrinkByLoc(drink, province, user, municipality, start, end, cacheKey));
+    }
 
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
-                .must(termQuery("drink_type", drink))
-                .must(termQuery("province", province));
-        if (municipality.isPresent()) {
-            boolQuery.must(termQuery("municipality", municipality.get()));
-            agg_term = "submunicipality";
-        }
+    /**
+     *
+     * Return every (location, drink) sell count, page by page in key order
+     * Pass the "after" of a response to get the next page, the last page has none
+     *
+     * @param province
+     * @param user
+     * @param municipality
+     * @param after location and drink of the last count of the previous page
+     * @param size counts per page
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping(value = {"/breakdown/loc/{province}/{user}", "/breakdown/loc/{province}/{municipality}/{user}"})
+    public CompletableFuture<Map<String, Object>> getSellBreakdownByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
+                                                                        @PathVariable(required = false, value = "municipality") Optional<String> municipality,
+                                                                        @RequestParam(required = false) List<String> after,
+                                                                        @RequestParam(defaultValue = "100") int size,
+                                                                        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                                        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+        String agg_term = municipality.isPresent() ? "submunicipality" : "municipality";
+        List<String> fields = Arrays.asList(agg_term, "drink_type");
+
+        if(after != null && after.size() != fields.size())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after must be a location and a drink");
+        if(size <= 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be positive");
+
+        return keysetAggregator.page(index, sellByLocFilter(province, user, municipality), user, fields,
+                after == null ? Collections.emptyList() : after, size, start, end);
+    }
 
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("agg").field(agg_term))
-                .build();
-
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
 
+    /**
+     *
+     * Return the number of distinct machines that sold a drink (approximate, HyperLogLog)
+     *
+     * @param user
+     * @param drink
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping("/distinct/{user}/{drink}")
+    public CompletableFuture<Integer> getSellMachines(@PathVariable String user, @PathVariable String drink,
+                                                      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
 
-        Terms agg = aggregations.get("agg");
+        IntegerResult cacheData = null;
 
+        if(!redisManager.permitCache(end)) {
+            cacheData = redisManager.getIntegerResult(sellMachinesPrefix, drink, user, start.toString(), end.toString());
+            if (cacheData.getValue() != null)
+                return CompletableFuture.completedFuture(cacheData.getValue());
+        }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        List<Map<String, Object>> responseData = new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("loc", entry.getKey());
-            data.put("count", entry.getDocCount());
+        return redisManager.loadOnce(cacheKey, () -> loadSellMachines(user, drink, start, end, cacheKey));
+    }
 
-            responseData.add(data);
-        }
+    /**
+     * Best selling drinks of all users
+     *
+     * The leaderboard keeps the best drinkAllSize (100) drinks of each day, so a drink outside a day's top 100
+     * is missing from that day's sales. top must be between 1 and 100.
+     *
+     * @param top
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping(value = {"/all/{top}","/all"})
+    public CompletableFuture<List<Map<String,Object>>> getSellByDrinkAll(@PathVariable(required = false) Optional<Integer> top,
+                                                   @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                   @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+        int n = topOf(top);
+
+        JsonListResult cacheData = null;
 
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
+        if(!redisManager.permitCache(end)) {
+            cacheData = redisManager.getJsonListResult(sellByDrinkAllPrefix, Integer.toString(n), start.toString(), end.toString());
+            if (cacheData.getValue() != null)
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        return responseData;
+        return redisManager.loadOnce(cacheKey, () -> loadSellByDrinkAll(n, start, end, cacheKey));
     }
 
-    @RequestMapping(value = {"/all/{top}","/all"})
-    public List<Map<String,Object>> getSellByDrinkAll(@PathVariable(required = false) Optional<Integer> top,
+    /**
+     * Best selling drinks of a user, from the same per-day top 100 as getSellByDrinkAll
+     *
+     * @param user
+     * @param top
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping(value = {"/top/user/{user}/{top}","/top/user/{user}"})
+    public CompletableFuture<List<Map<String,Object>>> getTopByUser(@PathVariable String user,
+                                                   @PathVariable(required = false) Optional<Integer> top,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+        int n = topOf(top);
+
+        JsonListResult cacheData = null;
+
+        if(!redisManager.permitCache(end)) {
+            cacheData = redisManager.getJsonListResult(sellTopByUserPrefix, user, Integer.toString(n), start.toString(), end.toString());
+            if (cacheData.getValue() != null)
+                return CompletableFuture.completedFuture(cacheData.getValue());
+        }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
+
+        return redisManager.loadOnce(cacheKey, () -> loadTopDrinks(DrinkLeaderboard.user, user, n, start, end, cacheKey));
+    }
 
-        boolean cacheFlag = false;
+    /**
+     * Best selling drinks of a province, from the same per-day top 100 as getSellByDrinkAll
+     *
+     * @param province
+     * @param top
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping(value = {"/top/province/{province}/{top}","/top/province/{province}"})
+    public CompletableFuture<List<Map<String,Object>>> getTopByProvince(@PathVariable String province,
+                                                   @PathVariable(required = false) Optional<Integer> top,
+                                                   @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                   @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+        int n = topOf(top);
 
         JsonListResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
-            cacheData = redisManager.getJsonListResult(sellByDrinkAllPrefix, top.orElse(10).toString(), start.toString(), end.toString());
+            cacheData = redisManager.getJsonListResult(sellTopByProvincePrefix, province, Integer.toString(n), start.toString(), end.toString());
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
+        return redisManager.loadOnce(cacheKey, () -> loadTopDrinks(DrinkLeaderboard.province, province, n, start, end, cacheKey));
+    }
+
+    /**
+     * Leaderboard day sets keep drinkAllSize drinks, a larger top would be cut silently
+     */
+    private static int topOf(Optional<Integer> top){
+        int n = top.orElse(10);
+        if(n <= 0 || n > drinkAllSize)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "top must be between 1 and " + drinkAllSize);
+        return n;
+    }
+
+
+    /*
+     * Computation behind each endpoint, also run by the cache warmer
+     */
 
-        String[] index_names = IndexManager.generateIndex(index, start, end);
+    private CompletableFuture<List<Map<String, Object>>> loadSellByDrink(String user, Optional<String> machine, LocalDate start, LocalDate end, String cacheKey){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
+        if (machine.isPresent())
+            boolQuery.must(termQuery("machine", machine.get()));
+
+        String[] dailyKey = machine.isPresent() ? new String[]{user, machine.get()} : new String[]{user};
 
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(matchAllQuery()))
-                .withIndices(index_names)
-                .addAggregation(AggregationBuilders.terms("agg").field("drink_type").size(top.orElse(10)))
-                .build();
+        return dailyAggregator.countByTerm(index, sellByDrinkDailyPrefix, constantScoreQuery(boolQuery), user,
+                "drink_type", drinkSize, start, end, dailyKey).thenApply(counts -> {
 
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
+            List<Map<String, Object>> responseData =
+                    TermCount.fromEntries("drink_type", "sell", DailyAggregator.orderByCount(counts, drinkSize));
+
+            if(cacheKey != null){
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
             }
+
+            return responseData;
         });
+    }
+
 
-        Terms agg = aggregations.get("agg");
+    private CompletableFuture<List<Map<String, Object>>> loadSellByTime(String user, Optional<String> machine, LocalDate start, LocalDate end, String cacheKey){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
+        if (machine.isPresent())
+            boolQuery.must(termQuery("machine", machine.get()));
 
+        String[] dailyKey = machine.isPresent() ? new String[]{user, machine.get()} : new String[]{user};
 
-        List<Map<String, Object>> responseData = new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("drink_type", entry.getKey());
-            data.put("count", entry.getDocCount());
+        return dailyAggregator.countByTerm(index, sellByTimeDailyPrefix, constantScoreQuery(boolQuery), user,
+                "hour_of_date", hourSize, start, end, dailyKey).thenApply(counts -> {
 
-            responseData.add(data);
-        }
+            List<Map<String, Object>> responseData =
+                    TermCount.fromEntries("hour", "count", DailyAggregator.orderByKey(counts, hourSize));
 
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 30, TimeUnit.DAYS);
-        }
+            if(cacheKey != null){
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
+            }
 
-        return responseData;
+            return responseData;
+        });
+    }
+
+
+    /**
+     * Partials filtered on the drink, so its count is exact whatever its rank among the drinks of the day
+     */
+    private CompletableFuture<Integer> loadSellDrink(String user, Optional<String> machine, String drink, LocalDate start, LocalDate end, String cacheKey){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
+                .must(termQuery("drink_type", drink));
+        if (machine.isPresent())
+            boolQuery.must(termQuery("machine", machine.get()));
 
+        String[] dailyKey = machine.isPresent() ? new String[]{drink, user, machine.get()} : new String[]{drink, user};
 
+        return dailyAggregator.countByTerm(index, sellDrinkDailyPrefix, constantScoreQuery(boolQuery), user,
+                "drink_type", 1, start, end, dailyKey).thenApply(counts -> {
+
+            int count = counts.getOrDefault(drink, 0L).intValue();
+
+            if(cacheKey != null){
+                redisManager.setIntegerOpts(cacheKey, count, 1, TimeUnit.HOURS);
+            }
+
+            return count;
+        });
     }
-}
 
+
+    private CompletableFuture<Integer> loadSellMachines(String user, String drink, LocalDate start, LocalDate end, String cacheKey){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
+                .must(termQuery("drink_type", drink));
+
+        return distinctCounter.countDistinct(index, sellMachinesDailyPrefix, constantScoreQuery(boolQuery), user,
+                "machine", start, end, drink, user).thenApply(distinct -> {
+
+            int count = distinct.intValue();
+
+            if(cacheKey != null){
+                redisManager.setIntegerOpts(cacheKey, count, 1, TimeUnit.HOURS);
+            }
+
+            return count;
+        });
+    }
+
+
+    private CompletableFuture<List<Map<String, List<Map<String, Object>>>>> loadSellByLoc(String province, String user, Optional<String> municipality, LocalDate start, LocalDate end, String cacheKey){
+        String agg_term = municipality.isPresent() ? "submunicipality" : "municipality";
+        String[] dailyKey = municipality.isPresent() ? new String[]{province, municipality.get(), user} : new String[]{province, user};
+
+        return dailyAggregator.countByTerms(index, sellByLocDailyPrefix, sellByLocFilter(province, user, municipality), user,
+                agg_term, locSize, "drink_type", drinkSize, start, end, dailyKey).thenApply(counts -> {
+
+            List<Map<String, List<Map<String, Object>>>> responseData = toSellByLoc(counts);
+
+            if(cacheKey != null){
+                redisManager.setJsonListsOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
+            }
+
+            return responseData;
+        });
+    }
+
+
+    /**
+     * Partials filtered on the drink, so locations are not limited to those where it is among the top drinks
+     */
+    private CompletableFuture<List<Map<String, Object>>> loadSellDrinkByLoc(String drink, String province, String user, Optional<String> municipality, LocalDate start, LocalDate end, String cacheKey){
+        String agg_term = municipality.isPresent() ? "submunicipality" : "municipality";
+        String[] dailyKey = municipality.isPresent() ? new String[]{drink, province, municipality.get(), user} : new String[]{drink, province, user};
+
+        BoolQueryBuilder boolQuery = boolQuery().must(sellByLocFilter(province, user, municipality))
+                .must(termQuery("drink_type", drink));
+
+        return dailyAggregator.countByTerm(index, sellDrinkByLocDailyPrefix, constantScoreQuery(boolQuery), user,
+                agg_term, locSize, start, end, dailyKey).thenApply(counts -> {
+
+            List<Map<String, Object>> responseData = TermCount.fromEntries("loc", "count",
+                    DailyAggregator.orderByCount(counts, locResponseSize));
+
+            if(cacheKey != null){
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
+            }
+
+            return responseData;
+        });
+    }
+
+
+    private CompletableFuture<List<Map<String, Object>>> loadSellByDrinkAll(int top, LocalDate start, LocalDate end, String cacheKey){
+        return loadTopDrinks(DrinkLeaderboard.all, null, top, start, end, cacheKey);
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> loadTopDrinks(String scope, String value, int top, LocalDate start, LocalDate end, String cacheKey){
+        return drinkLeaderboard.top(scope, value, top, start, end).thenApply(entries -> {
+
+            List<Map<String, Object>> responseData = TermCount.fromEntries("drink_type", "count", entries);
+
+            if(cacheKey != null){
+                if(end.isBefore(LocalDate.now()))
+                    redisManager.setJsonListOpts(cacheKey, responseData, 30, TimeUnit.DAYS);
+                else
+                    redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
+            }
+
+            return responseData;
+        });
+    }
+
+
+    private static QueryBuilder sellByLocFilter(String province, String user, Optional<String> municipality){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
+                .must(termQuery("province", province));
+        if (municipality.isPresent())
+            boolQuery.must(termQuery("municipality", municipality.get()));
+
+        return constantScoreQuery(boolQuery);
+    }
+
+
+    /**
+     * The top locations by sales, each with its top drinks
+     */
+    private static List<Map<String, List<Map<String, Object>>>> toSellByLoc(Map<Object, Map<Object, Long>> counts){
+        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
+
+        for (Map.Entry<Object, Long> loc : DailyAggregator.orderByCount(DailyAggregator.totals(counts), locResponseSize)) {
+            List<Map<String, Object>> subData = TermCount.fromEntries("drink", "count",
+                    DailyAggregator.orderByCount(counts.get(loc.getKey()), locResponseSize));
+            responseData.add(Collections.singletonMap(loc.getKey().toString(), subData));
+        }
+        return responseData;
+    }
+}
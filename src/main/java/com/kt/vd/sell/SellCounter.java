@@ -0,0 +1,50 @@
+package com.kt.vd.sell;
+
+
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ingest.SellEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Today's counters of the sell endpoints read by countByTerm, for every ingested sale of today
+ */
+@Component
+public class SellCounter {
+
+    @Autowired
+    DailyAggregator dailyAggregator;
+
+
+    /**
+     * Count ingested sales of today, events of closed days are left to the rollup
+     * @param events
+     */
+    public void record(List<SellEvent> events){
+        LocalDate today = LocalDate.now();
+        Map<String, Map<String, Long>> increments = new HashMap<>();
+        for (SellEvent event : events) {
+            if(!event.getDate().toLocalDate().equals(today))
+                continue;
+            long hour = event.getDate().getHour();
+
+            dailyAggregator.count(increments, SellController.sellByDrinkDailyPrefix, event.getDrinkType(), event.getUser());
+            dailyAggregator.count(increments, SellController.sellByDrinkDailyPrefix, event.getDrinkType(), event.getUser(), event.getMachine());
+            dailyAggregator.count(increments, SellController.sellByTimeDailyPrefix, hour, event.getUser());
+            dailyAggregator.count(increments, SellController.sellByTimeDailyPrefix, hour, event.getUser(), event.getMachine());
+            dailyAggregator.count(increments, SellController.sellDrinkDailyPrefix, event.getDrinkType(), event.getDrinkType(), event.getUser());
+            dailyAggregator.count(increments, SellController.sellDrinkDailyPrefix, event.getDrinkType(), event.getDrinkType(), event.getUser(), event.getMachine());
+            dailyAggregator.count(increments, SellController.sellDrinkByLocDailyPrefix, event.getMunicipality(),
+                    event.getDrinkType(), event.getProvince(), event.getUser());
+            if(event.getSubmunicipality() != null)
+                dailyAggregator.count(increments, SellController.sellDrinkByLocDailyPrefix, event.getSubmunicipality(),
+                        event.getDrinkType(), event.getProvince(), event.getMunicipality(), event.getUser());
+        }
+        dailyAggregator.recordCounts(increments);
+    }
+}
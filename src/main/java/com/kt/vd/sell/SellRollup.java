@@ -0,0 +1,158 @@
+package com.kt.vd.sell;
+
+
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ElasticSearch.DailyRollup;
+import com.kt.vd.ElasticSearch.DistinctCounter;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partial aggregates of the sell endpoints for every user, machine and location of a closed day, and its drink leaderboards
+ */
+@Component
+public class SellRollup extends DailyRollup {
+
+    @Autowired
+    DrinkLeaderboard drinkLeaderboard;
+    @Autowired
+    DistinctCounter distinctCounter;
+
+    @Override
+    protected String index() {
+        return SellController.index;
+    }
+
+    @Override
+    protected List<AbstractAggregationBuilder> userAggregations() {
+        return Arrays.asList(
+                drinkAgg(),
+                hourAgg(),
+                AggregationBuilders.terms("machine").field("machine").size(machineSize)
+                        .subAggregation(drinkAgg())
+                        .subAggregation(hourAgg()),
+                AggregationBuilders.terms("province").field("province").size(SellController.locSize)
+                        .subAggregation(locAgg("municipality"))
+                        .subAggregation(AggregationBuilders.terms("municipality").field("municipality").size(SellController.locSize)
+                                .subAggregation(locAgg("submunicipality"))));
+    }
+
+    @Override
+    protected List<AbstractAggregationBuilder> dayAggregations() {
+        return Arrays.asList(
+                AggregationBuilders.terms("all").field("drink_type").size(SellController.drinkAllSize),
+                AggregationBuilders.terms("province").field("province").size(SellController.locSize)
+                        .subAggregation(AggregationBuilders.terms("drink").field("drink_type").size(SellController.drinkAllSize)));
+    }
+
+    @Override
+    protected void collect(Terms.Bucket user, LocalDate day, Map<String, List<Map<String, Object>>> partials) {
+        collectUser(user, day, partials, user.getKeyAsString());
+
+        Terms machines = user.getAggregations().get("machine");
+        for (Terms.Bucket machine : machines.getBuckets())
+            collectUser(machine, day, partials, user.getKeyAsString(), machine.getKeyAsString());
+
+        Terms provinces = user.getAggregations().get("province");
+        for (Terms.Bucket province : provinces.getBuckets()) {
+            partials.put(dailyAggregator.partialKey(SellController.sellByLocDailyPrefix, day, province.getKeyAsString(), user.getKeyAsString()),
+                    DailyAggregator.toNestedPartial(province.getAggregations().get("agg")));
+
+            Terms municipalities = province.getAggregations().get("municipality");
+            for (Terms.Bucket municipality : municipalities.getBuckets())
+                partials.put(dailyAggregator.partialKey(SellController.sellByLocDailyPrefix, day,
+                        province.getKeyAsString(), municipality.getKeyAsString(), user.getKeyAsString()),
+                        DailyAggregator.toNestedPartial(municipality.getAggregations().get("agg")));
+        }
+    }
+
+    /**
+     * Leaderboards of the users of a page, from the same counts as their partials
+     */
+    @Override
+    protected void rolledUp(Terms users, LocalDate day) {
+        Map<String, Map<String, Long>> sets = new HashMap<>();
+        for (Terms.Bucket user : users.getBuckets())
+            sets.put(drinkLeaderboard.boardKey(DrinkLeaderboard.user, user.getKeyAsString(), day),
+                    DrinkLeaderboard.toScores(user.getAggregations().get("drink")));
+
+        drinkLeaderboard.replace(sets);
+    }
+
+    /**
+     * Leaderboards of the whole day and of every province
+     */
+    @Override
+    protected void rolledUp(Aggregations aggregations, LocalDate day) {
+        Map<String, Map<String, Long>> sets = new HashMap<>();
+        sets.put(drinkLeaderboard.boardKey(DrinkLeaderboard.all, null, day), DrinkLeaderboard.toScores(aggregations.get("all")));
+
+        Terms provinces = aggregations.get("province");
+        for (Terms.Bucket province : provinces.getBuckets())
+            sets.put(drinkLeaderboard.boardKey(DrinkLeaderboard.province, province.getKeyAsString(), day),
+                    DrinkLeaderboard.toScores(province.getAggregations().get("drink")));
+
+        drinkLeaderboard.replace(sets);
+    }
+
+    @Override
+    protected void staleKeys(Map<String, Object> document, LocalDate day, Set<String> keys) {
+        String user = (String) document.get("user");
+        String machine = (String) document.get("machine");
+        String province = (String) document.get("province");
+        String municipality = (String) document.get("municipality");
+        String drink = (String) document.get("drink_type");
+
+        for (String prefix : Arrays.asList(SellController.sellByDrinkDailyPrefix, SellController.sellByTimeDailyPrefix)) {
+            keys.add(dailyAggregator.partialKey(prefix, day, user));
+            keys.add(dailyAggregator.partialKey(prefix, day, user, machine));
+        }
+        keys.add(dailyAggregator.partialKey(SellController.sellByLocDailyPrefix, day, province, user));
+        keys.add(dailyAggregator.partialKey(SellController.sellByLocDailyPrefix, day, province, municipality, user));
+        keys.add(dailyAggregator.partialKey(SellController.sellDrinkDailyPrefix, day, drink, user));
+        keys.add(dailyAggregator.partialKey(SellController.sellDrinkDailyPrefix, day, drink, user, machine));
+        keys.add(dailyAggregator.partialKey(SellController.sellDrinkByLocDailyPrefix, day, drink, province, user));
+        keys.add(dailyAggregator.partialKey(SellController.sellDrinkByLocDailyPrefix, day, drink, province, municipality, user));
+        keys.add(distinctCounter.sketchKey(SellController.sellMachinesDailyPrefix, day, drink, user));
+
+        keys.add(drinkLeaderboard.boardKey(DrinkLeaderboard.all, null, day));
+        keys.add(drinkLeaderboard.boardKey(DrinkLeaderboard.user, user, day));
+        keys.add(drinkLeaderboard.boardKey(DrinkLeaderboard.province, province, day));
+    }
+
+
+    private void collectUser(Terms.Bucket bucket, LocalDate day, Map<String, List<Map<String, Object>>> partials, String... parameters){
+        partials.put(dailyAggregator.partialKey(SellController.sellByDrinkDailyPrefix, day, parameters),
+                DailyAggregator.toPartial(bucket.getAggregations().get("drink")));
+        partials.put(dailyAggregator.partialKey(SellController.sellByTimeDailyPrefix, day, parameters),
+                DailyAggregator.toPartial(bucket.getAggregations().get("hour")));
+    }
+
+    private static TermsAggregationBuilder drinkAgg(){
+        return AggregationBuilders.terms("drink").field("drink_type").size(SellController.drinkSize);
+    }
+
+    private static TermsAggregationBuilder hourAgg(){
+        return AggregationBuilders.terms("hour").field("hour_of_date").size(SellController.hourSize);
+    }
+
+    /**
+     * Same aggregation as SellController's location queries, see DailyAggregator.countByTerms
+     */
+    private static TermsAggregationBuilder locAgg(String field){
+        return AggregationBuilders.terms("agg").field(field).size(SellController.locSize)
+                .subAggregation(AggregationBuilders.terms("sub").field("drink_type").size(SellController.drinkSize));
+    }
+}
@@ -0,0 +1,105 @@
+package com.kt.vd.sensor;
+
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+
+/**
+ * Position of the last reading a polling client received.
+ *
+ * Either a date ("yyyy-MM-dd HH:mm:ss", readings after that second) or an opaque cursor built from the
+ * sort values (date, _uid) of the last hit, which continues exactly after it with search_after so readings
+ * of the same second are neither repeated nor skipped.
+ */
+public class SensorCursor {
+
+    public static final String header = "X-Sensor-Cursor";
+    static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final LocalDateTime date;
+    private final Object[] searchAfter;
+
+    private SensorCursor(LocalDateTime date, Object[] searchAfter) {
+        this.date = date;
+        this.searchAfter = searchAfter;
+    }
+
+
+    /**
+     * @param since date or cursor
+     * @return
+     * @throws IllegalArgumentException when it is neither
+     */
+    public static SensorCursor parse(String since){
+        try {
+            return new SensorCursor(LocalDateTime.parse(since, formatter), null);
+        } catch (DateTimeParseException e) {
+            // not a date, a cursor
+        }
+
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(since), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            long millis = Long.parseLong(decoded.substring(0, separator));
+            String uid = decoded.substring(separator + 1);
+            return new SensorCursor(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC), new Object[]{millis, uid});
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("since must be a date (yyyy-MM-dd HH:mm:ss) or a cursor");
+        }
+    }
+
+    /**
+     * Cursor after a hit of a search sorted by sort()
+     */
+    public static String of(SearchHit hit){
+        Object[] sortValues = hit.getSortValues();
+        String value = sortValues[0] + ":" + sortValues[1];
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Oldest reading date, to resolve the daily indices
+     */
+    public LocalDateTime getDate(){
+        return date;
+    }
+
+    /**
+     * Date range of the readings, the cursor itself still has to be passed as search_after
+     */
+    public QueryBuilder range(){
+        return searchAfter == null
+                ? rangeQuery("date").gt(date.format(formatter))
+                : rangeQuery("date").gte(date.format(formatter));
+    }
+
+    /**
+     * @return null for a date
+     */
+    public Object[] getSearchAfter(){
+        return searchAfter == null ? null : Arrays.copyOf(searchAfter, searchAfter.length);
+    }
+
+    /**
+     * Sort the cursor is built on, the _uid tie breaker orders readings of the same millisecond
+     */
+    public static List<SortBuilder> sort(){
+        return Arrays.asList(SortBuilders.fieldSort("date").order(SortOrder.ASC),
+                SortBuilders.fieldSort("_uid").order(SortOrder.ASC));
+    }
+}
@@ -0,0 +1,211 @@
+package com.kt.vd.sensor;
+
+
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.ElasticSearch.IndexManager;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Pushes new sensor readings to server-sent event subscribers.
+ *
+ * There is one reader per (index, user, machine) no matter how many clients watch it,
+ * every poll fans the new readings out to the subscribers of that machine (optionally filtered by lane).
+ * Each poll continues after the last reading sent with search_after, so readings are read once.
+ */
+@Component
+public class SensorFeed {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorFeed.class);
+
+    static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final int maxReadings = 10000;
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    IndexManager indexManager;
+
+    @Value("${statistics.live.timeout:1800000}")
+    long timeout;
+
+    /**
+     * A poll slower than this is dropped, the next poll reads from the same date
+     */
+    @Value("${statistics.live.poll-timeout:5000}")
+    long pollTimeout;
+
+    private final ConcurrentMap<String, Feed> feeds = new ConcurrentHashMap<>();
+
+
+    /**
+     *
+     * Subscribe to the readings of a machine
+     *
+     * @param index index prefix, ex) "temperature-"
+     * @param user
+     * @param machine
+     * @param lane null for every lane
+     * @return
+     */
+    public SseEmitter subscribe(String index, String user, String machine, Integer lane){
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(emitter, lane);
+
+        String feedKey = index + ":" + user + ":" + machine;
+        feeds.compute(feedKey, (key, feed) -> {
+            if(feed == null)
+                feed = new Feed(index, user, machine);
+            feed.subscribers.add(subscriber);
+            return feed;
+        });
+
+        Runnable unsubscribe = () -> feeds.computeIfPresent(feedKey, (key, feed) -> {
+            feed.subscribers.remove(subscriber);
+            return feed.subscribers.isEmpty() ? null : feed;
+        });
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+
+        return emitter;
+    }
+
+
+    @Scheduled(fixedDelayString = "${statistics.live.poll-interval:2000}")
+    public void poll(){
+        for (Feed feed : feeds.values()) {
+            if(feed.polling.compareAndSet(false, true))
+                poll(feed);
+        }
+    }
+
+    private void poll(Feed feed){
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime since = feed.lastDate;
+
+        Set<String> index_names = new LinkedHashSet<>();
+        index_names.add(feed.index + since.toLocalDate().toString());
+        index_names.add(feed.index + now.toLocalDate().toString());
+        index_names.removeIf(index_name -> !indexManager.exists(index_name));
+        if(index_names.isEmpty()) {
+            feed.polling.set(false);
+            return;
+        }
+
+        QueryBuilder query = boolQuery().must(termQuery("user", feed.user))
+                .must(termQuery("machine", feed.machine))
+                .must(rangeQuery("date").gte(since.format(formatter)));
+
+        NativeSearchQueryBuilder searchQueryBuilder = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(query))
+                .withIndices(index_names.toArray(new String[0]))
+                .withRoute(feed.user)
+                .withPageable(PageRequest.of(0, maxReadings));
+        for (SortBuilder sort : SensorCursor.sort())
+            searchQueryBuilder.withSort(sort);
+
+        asyncSearch.searchAfter(searchQueryBuilder.build(), feed.searchAfter, pollTimeout).whenComplete((response, e) -> {
+            try {
+                if (e != null) {
+                    log.warn("Sensor feed poll failed : {}", e.getMessage());
+                    return;
+                }
+                publish(feed, response.getHits().getHits());
+            } finally {
+                feed.polling.set(false);
+            }
+        });
+    }
+
+    private void publish(Feed feed, SearchHit[] hits){
+        if(hits.length == 0)
+            return;
+
+        List<Map<String, Object>> readings = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            Map<String, Object> source = hit.getSourceAsMap();
+            Map<String, Object> data = new HashMap<>();
+            data.put("lane", source.get("lane"));
+            data.put("degree", source.get("degree"));
+            data.put("date", source.get("date"));
+            readings.add(data);
+        }
+
+        SearchHit last = hits[hits.length - 1];
+        feed.lastDate = LocalDateTime.parse(last.getSourceAsMap().get("date").toString(), formatter);
+        feed.searchAfter = last.getSortValues();
+
+        for (Subscriber subscriber : feed.subscribers) {
+            List<Map<String, Object>> data = subscriber.filter(readings);
+            if(data.isEmpty())
+                continue;
+            try {
+                subscriber.emitter.send(SseEmitter.event().name("reading").data(data));
+            } catch (IOException | IllegalStateException e) {
+                subscriber.emitter.completeWithError(e);
+            }
+        }
+    }
+
+
+    static class Feed {
+        final String index;
+        final String user;
+        final String machine;
+        final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        final AtomicBoolean polling = new AtomicBoolean(false);
+
+        volatile LocalDateTime lastDate = LocalDateTime.now().withNano(0);
+        volatile Object[] searchAfter;
+
+        Feed(String index, String user, String machine) {
+            this.index = index;
+            this.user = user;
+            this.machine = machine;
+        }
+    }
+
+    static class Subscriber {
+        final SseEmitter emitter;
+        final Integer lane;
+
+        Subscriber(SseEmitter emitter, Integer lane) {
+            this.emitter = emitter;
+            this.lane = lane;
+        }
+
+        List<Map<String, Object>> filter(List<Map<String, Object>> readings){
+            if(lane == null)
+                return readings;
+
+            List<Map<String, Object>> data = new ArrayList<>();
+            for (Map<String, Object> reading : readings) {
+                if(lane.toString().equals(String.valueOf(reading.get("lane"))))
+                    data.add(reading);
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.kt.vd.sensor;
+
+
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.ElasticSearch.IndexManager;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Latest reading and recent stats of every lane of every machine of a user, in one search per page.
+ *
+ * Machines are paged in key order: a page is a terms aggregation on machine ordered by key, and the next
+ * page starts after the last machine of the previous one, so a page costs the same however large the fleet is.
+ */
+@Component
+public class SensorFleet {
+
+    static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final private int laneSize = 100;
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    IndexManager indexManager;
+
+    @Value("${statistics.fleet.max-size:1000}")
+    int maxSize;
+
+
+    /**
+     *
+     * @param index index prefix, ex) "temperature-"
+     * @param user
+     * @param after last machine of the previous page, null for the first page
+     * @param size machines per page, at most max-size
+     * @param window minutes of readings the stats cover
+     * @return {"machines" : [{"machine", "lanes" : [{"lane", "degree", "date", "min", "avg", "max", "count"}]}], "after"}
+     *          "after" is null on the last page
+     */
+    public CompletableFuture<Map<String, Object>> snapshot(String index, String user, String after, int size, int window){
+        int pageSize = Math.min(size, maxSize);
+        LocalDateTime datetime = LocalDateTime.now();
+        LocalDateTime datetimeMinus = datetime.minusMinutes(window);
+
+        String[] index_names = indexManager.resolveIndex(index, datetimeMinus.toLocalDate(), datetime.toLocalDate());
+        if(index_names.length == 0)
+            return CompletableFuture.completedFuture(toSnapshot(new ArrayList<>(), null));
+
+        BoolQueryBuilder query = boolQuery().must(termQuery("user", user))
+                .must(rangeQuery("date").gte(datetimeMinus.format(formatter)).lte(datetime.format(formatter)));
+        if(after != null)
+            query.must(rangeQuery("machine").gt(after));
+
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(query))
+                .withIndices(index_names)
+                .withRoute(user)
+                .addAggregation(AggregationBuilders.terms("machine").field("machine").size(pageSize)
+                        .order(Terms.Order.term(true))
+                        .subAggregation(AggregationBuilders.terms("lane").field("lane").size(laneSize)
+                                .subAggregation(AggregationBuilders.stats("degree").field("degree"))
+                                .subAggregation(AggregationBuilders.topHits("latest").size(1)
+                                        .sort("date", SortOrder.DESC)
+                                        .fetchSource(new String[]{"degree", "date"}, null))))
+                .build();
+
+        return asyncSearch.aggregate(searchQuery).thenApply(aggregations -> toSnapshot(aggregations, pageSize));
+    }
+
+
+    private static Map<String, Object> toSnapshot(Aggregations aggregations, int size){
+        Terms machines = aggregations.get("machine");
+        List<Map<String, Object>> machineData = new ArrayList<>();
+        String last = null;
+
+        for (Terms.Bucket machine : machines.getBuckets()) {
+            Terms lanes = machine.getAggregations().get("lane");
+            List<Map<String, Object>> laneData = new ArrayList<>();
+
+            for (Terms.Bucket lane : lanes.getBuckets()) {
+                Stats stats = lane.getAggregations().get("degree");
+                TopHits latest = lane.getAggregations().get("latest");
+                SearchHit hit = latest.getHits().getHits()[0];
+
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("lane", lane.getKeyAsNumber().intValue());
+                data.put("degree", hit.getSourceAsMap().get("degree"));
+                data.put("date", hit.getSourceAsMap().get("date"));
+                data.put("min", stats.getMin());
+                data.put("avg", stats.getAvg());
+                data.put("max", stats.getMax());
+                data.put("count", stats.getCount());
+                laneData.add(data);
+            }
+
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("machine", machine.getKeyAsString());
+            data.put("lanes", laneData);
+            machineData.add(data);
+            last = machine.getKeyAsString();
+        }
+
+        // a short page is the last one
+        return toSnapshot(machineData, machineData.size() < size ? null : last);
+    }
+
+    private static Map<String, Object> toSnapshot(List<Map<String, Object>> machines, String after){
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("machines", machines);
+        snapshot.put("after", after);
+        return snapshot;
+    }
+}
@@ -0,0 +1,170 @@
+package com.kt.vd.sensor;
+
+
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.Redis.JsonListResult;
+import com.kt.vd.Redis.RedisManager;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.stats.Stats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Downsampled sensor readings of any time range.
+ *
+ * Readings are grouped per lane into date_histogram buckets with min / avg / max of the degree,
+ * the bucket width is picked from the range and the chart width so the response size stays fixed.
+ * Ranges that ended before today are cached.
+ */
+@Component
+public class SensorHistory {
+
+    static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final private String historyPrefix = "sensor:history";
+    static final private int laneSize = 100;
+
+    /**
+     * Bucket widths to choose from, in seconds, with their date_histogram interval
+     */
+    static final private long[] intervalSeconds = {1, 5, 10, 30, 60, 300, 600, 900, 1800, 3600, 10800, 21600, 43200, 86400, 604800};
+    static final private String[] intervals = {"1s", "5s", "10s", "30s", "1m", "5m", "10m", "15m", "30m", "1h", "3h", "6h", "12h", "1d", "7d"};
+
+    @Autowired
+    AsyncSearch asyncSearch;
+    @Autowired
+    IndexManager indexManager;
+    @Autowired
+    RedisManager redisManager;
+
+    @Value("${statistics.history.pixels-per-bucket:2}")
+    int pixelsPerBucket;
+
+    @Value("${statistics.history.max-buckets:1000}")
+    int maxBuckets;
+
+
+    /**
+     *
+     * Per lane min / avg / max of the degree between start and end
+     *
+     * @param index index prefix, ex) "temperature-"
+     * @param user
+     * @param machine
+     * @param lane null for every lane
+     * @param start
+     * @param end
+     * @param width chart width in pixels
+     * @return [{"lane", "interval", "data" : [{"date", "min", "avg", "max", "count"}]}]
+     */
+    public CompletableFuture<List<Map<String, Object>>> history(String index, String user, String machine, Integer lane,
+                                                               LocalDateTime start, LocalDateTime end, int width){
+        String interval = interval(start, end, width);
+        String laneKey = lane == null ? "all" : lane.toString();
+
+        JsonListResult cacheData = null;
+        if(end.toLocalDate().isBefore(LocalDate.now())) {
+            cacheData = redisManager.getJsonListResult(historyPrefix, index, user, machine, laneKey,
+                    start.format(formatter), end.format(formatter), interval);
+            if(cacheData.getValue() != null)
+                return CompletableFuture.completedFuture(cacheData.getValue());
+        }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
+
+        return redisManager.loadOnce(cacheKey, () -> loadHistory(index, user, machine, lane, start, end, interval, cacheKey));
+    }
+
+    /**
+     * Smallest bucket width giving at most one bucket per pixelsPerBucket pixels (and at most maxBuckets)
+     */
+    String interval(LocalDateTime start, LocalDateTime end, int width){
+        long seconds = Math.max(1, Duration.between(start, end).getSeconds());
+        long buckets = Math.max(1, Math.min(maxBuckets, width / pixelsPerBucket));
+        long target = (seconds + buckets - 1) / buckets;
+
+        for (int i = 0; i < intervalSeconds.length; i++) {
+            if(intervalSeconds[i] >= target)
+                return intervals[i];
+        }
+        return intervals[intervals.length - 1];
+    }
+
+
+    private CompletableFuture<List<Map<String, Object>>> loadHistory(String index, String user, String machine, Integer lane,
+                                                                    LocalDateTime start, LocalDateTime end, String interval, String cacheKey){
+        String[] index_names = indexManager.resolveIndex(index, start.toLocalDate(), end.toLocalDate());
+        if(index_names.length == 0)
+            return CompletableFuture.completedFuture(new ArrayList<>());
+
+        BoolQueryBuilder query = boolQuery().must(termQuery("user", user))
+                .must(termQuery("machine", machine))
+                .must(rangeQuery("date").gte(start.format(formatter)).lte(end.format(formatter)));
+        if(lane != null)
+            query.must(termQuery("lane", lane));
+
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withQuery(constantScoreQuery(query))
+                .withIndices(index_names)
+                .withRoute(user)
+                .addAggregation(AggregationBuilders.terms("lane").field("lane").size(laneSize)
+                        .subAggregation(AggregationBuilders.dateHistogram("date").field("date")
+                                .dateHistogramInterval(new DateHistogramInterval(interval))
+                                .format("yyyy-MM-dd HH:mm:ss")
+                                .minDocCount(1)
+                                .subAggregation(AggregationBuilders.stats("degree").field("degree"))))
+                .build();
+
+        return asyncSearch.aggregate(searchQuery).thenApply(aggregations -> {
+            List<Map<String, Object>> responseData = toHistory(aggregations, interval);
+            if(cacheKey != null)
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.DAYS);
+            return responseData;
+        });
+    }
+
+    static List<Map<String, Object>> toHistory(Aggregations aggregations, String interval){
+        Terms lanes = aggregations.get("lane");
+        List<Map<String, Object>> responseData = new ArrayList<>();
+
+        for (Terms.Bucket lane : lanes.getBuckets()) {
+            Histogram histogram = lane.getAggregations().get("date");
+            List<Map<String, Object>> data = new ArrayList<>(histogram.getBuckets().size());
+
+            for (Histogram.Bucket bucket : histogram.getBuckets()) {
+                Stats stats = bucket.getAggregations().get("degree");
+                Map<String, Object> point = new LinkedHashMap<>();
+                point.put("date", bucket.getKeyAsString());
+                point.put("min", stats.getMin());
+                point.put("avg", stats.getAvg());
+                point.put("max", stats.getMax());
+                point.put("count", stats.getCount());
+                data.add(point);
+            }
+
+            Map<String, Object> laneData = new LinkedHashMap<>();
+            laneData.put("lane", lane.getKeyAsNumber().intValue());
+            laneData.put("interval", interval);
+            laneData.put("data", data);
+            responseData.add(laneData);
+        }
+        return responseData;
+    }
+}
@@ -1,23 +1,31 @@
 package com.kt.vd.temperature;
 
 
-import org.elasticsearch.action.search.SearchResponse;
+import com.kt.vd.ElasticSearch.AsyncSearch;
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.sensor.SensorCursor;
+import com.kt.vd.sensor.SensorFeed;
+import com.kt.vd.sensor.SensorFleet;
+import com.kt.vd.sensor.SensorHistory;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
-import org.springframework.data.elasticsearch.core.ResultsExtractor;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
 import org.springframework.data.elasticsearch.core.query.SearchQuery;
-import org.springframework.data.util.CloseableIterator;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -26,71 +34,108 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
 
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = SensorCursor.header)
 @RestController
 @RequestMapping(value = "/temperature", method =  RequestMethod.GET )
 public class TemperatureController {
 
     @Autowired
-    ElasticsearchTemplate esTemplate;
+    AsyncSearch asyncSearch;
+    @Autowired
+    SensorFeed sensorFeed;
+    @Autowired
+    SensorHistory sensorHistory;
+    @Autowired
+    SensorFleet sensorFleet;
+    @Autowired
+    IndexManager indexManager;
 
     static final String index = "temperature-";
     static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    static final int maxReadings = 10000;
 
 
 
     /**
      *
-     * Return temperature data between now()- 'interval'minutes and now()
+     * Return temperature data between now()- 'interval'minutes and now(),
+     * or every reading after 'since' when the client passes where its last poll ended
+     * The position after the last returned reading is in the {@link SensorCursor#header} header
      *
      * @param user
      * @param machine
      * @param lane
+     * @param since date or cursor of the last poll, null for the last 'interval' minutes
      * @return
      */
-    private List<Map<String,Object>> getTemperatureByInterval(String user, String machine, int lane, int interval){
+    private CompletableFuture<ResponseEntity<List<Map<String,Object>>>> getTemperatureByInterval(String user, String machine, int lane, int interval, String since){
 
         LocalDateTime datetime = LocalDateTime.now();
         LocalDate date = datetime.toLocalDate();
         LocalDateTime datetimeMinus10 = datetime.minusMinutes(interval);
 
-        String index_name = index + date.toString();
+        SensorCursor cursor = null;
+        if(since != null) {
+            try {
+                cursor = SensorCursor.parse(since);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+        }
+
+        String[] index_names = cursor == null
+                ? new String[]{index + date.toString()}
+                : indexManager.resolveIndex(index, cursor.getDate().toLocalDate(), date);
+        if(index_names.length == 0 || cursor == null && !indexManager.exists(index_names[0]))
+            return CompletableFuture.completedFuture(cursorResponse(new ArrayList<>(), since));
 
 
         QueryBuilder query = constantScoreQuery(boolQuery().must(termQuery("user", user))
                 .must(termQuery("machine", machine))
                 .must(termQuery("lane", lane)));
 
-        RangeQueryBuilder rangeQueryBuilder = QueryBuilders.rangeQuery("date")
+        QueryBuilder rangeQueryBuilder = cursor != null ? cursor.range() : QueryBuilders.rangeQuery("date")
                 .gte(datetimeMinus10.format(formatter))
                 .lte(datetime.format(formatter));
 
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+        NativeSearchQueryBuilder searchQueryBuilder = new NativeSearchQueryBuilder()
                 .withQuery(query)
                 .withFilter(rangeQueryBuilder)
-                .withIndices(index_name)
+                .withIndices(index_names)
                 .withRoute(user)
-                .build();
+                .withPageable(PageRequest.of(0, maxReadings));
+        for (SortBuilder sort : SensorCursor.sort())
+            searchQueryBuilder.withSort(sort);
 
-        CloseableIterator<Temperature> stream = esTemplate.stream(searchQuery, Temperature.class);
+        Object[] searchAfter = cursor == null ? null : cursor.getSearchAfter();
+        return asyncSearch.searchAfter(searchQueryBuilder.build(), searchAfter).thenApply(response -> {
+            List<Map<String, Object>> result = new ArrayList<>();
+            String next = since;
 
-        Temperature temperature;
-        List<Map<String, Object>> result = new ArrayList<>();
+            for (SearchHit hit : response.getHits().getHits()) {
+                Map<String, Object> source = hit.getSourceAsMap();
 
-        while(stream.hasNext()){
-            temperature = stream.next();
+                Map<String, Object> data = new HashMap<>();
+                data.put("degree", source.get("degree"));
+                data.put("date", source.get("date"));
 
-            Map<String, Object> data = new HashMap<>();
-            data.put("degree",temperature.getDegree());
-            data.put("date",temperature.getDate());
+                result.add(data);
+                next = SensorCursor.of(hit);
+            }
 
-            result.add(data);
-        }
+            return cursorResponse(result, next);
+        });
+    }
 
-        return result;
+    private static ResponseEntity<List<Map<String, Object>>> cursorResponse(List<Map<String, Object>> readings, String cursor){
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if(cursor != null)
+            response.header(SensorCursor.header, cursor);
+        return response.body(readings);
     }
 
 
@@ -107,31 +152,32 @@ public class TemperatureController {
      * @return
      */
     @RequestMapping("/init/{user}/{machine}/{lane}")
-    public List<Map<String,Object>> getTemperatureInit(@PathVariable String user, @PathVariable String machine,
-                                                   @PathVariable int lane){
-        return getTemperatureByInterval(user, machine, lane, 10);
+    public CompletableFuture<ResponseEntity<List<Map<String,Object>>>> getTemperatureInit(@PathVariable String user, @PathVariable String machine,
+                                                       @PathVariable int lane){
+        return getTemperatureByInterval(user, machine, lane, 10, null);
     }
 
 
     /**
      *
      * Response recent temperature data
-     * Return temperature data between now()-1minutes and now()
+     * Return temperature data between now()-1minutes and now(), or only the readings after 'since'
      *
      * @param user
      * @param machine
      * @param lane
+     * @param since {@link SensorCursor#header} of the previous response, or a date (yyyy-MM-dd HH:mm:ss)
      * @return
      */
     @RequestMapping("/{user}/{machine}/{lane}")
-    public List<Map<String,Object>> getTemperature(@PathVariable String user, @PathVariable String machine,
-                                                       @PathVariable int lane){
-        return getTemperatureByInterval(user, machine, lane, 1);
+    public CompletableFuture<ResponseEntity<List<Map<String,Object>>>> getTemperature(@PathVariable String user, @PathVariable String machine,
+                                                       @PathVariable int lane, @RequestParam(required = false) String since){
+        return getTemperatureByInterval(user, machine, lane, 1, since);
     }
 
 
 
-    private List<Map<String, List<Map<String, Object>>>> getTemperaturesByInterval(String user, String machine, int interval){
+    private CompletableFuture<List<Map<String, List<Map<String, Object>>>>> getTemperaturesByInterval(String user, String machine, int interval){
 
         LocalDateTime datetime = LocalDateTime.now();
         LocalDate date = datetime.toLocalDate();
@@ -139,6 +185,8 @@ public class TemperatureController {
 
 
         String index_name = index + date.toString();
+        if(!indexManager.exists(index_name))
+            return CompletableFuture.completedFuture(new ArrayList<>());
 
         RangeQueryBuilder rangeQueryBuilder = QueryBuilders.rangeQuery("date")
                 .gte(datetimeMinus10.format(formatter))
@@ -158,112 +206,125 @@ public class TemperatureController {
 
 
 
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
+        return asyncSearch.aggregate(searchQuery).thenApply(aggregations -> {
 
-        Terms mainAggs = aggregations.get("main");
-        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
+            Terms mainAggs = aggregations.get("main");
+            List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
 
 
-        for (Terms.Bucket subAgg : mainAggs.getBuckets()) {
-            Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
-            List<Map<String, Object>> subData = new ArrayList<>();
+            for (Terms.Bucket subAgg : mainAggs.getBuckets()) {
+                Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
+                List<Map<String, Object>> subData = new ArrayList<>();
 
-            TopHits topHits = subAgg.getAggregations().get("sub");
+                TopHits topHits = subAgg.getAggregations().get("sub");
 
-            for (SearchHit hit : topHits.getHits().getHits()) {
-                Map<String, Object> data = new HashMap<>();
-                Map<String, Object> source = hit.getSourceAsMap();
-//                data.put("date", source.get("date"));
-                data.put("date", source.get("date"));
-                data.put("degree", source.get("degree"));
-                subData.add(data);
-            }
+                for (SearchHit hit : topHits.getHits().getHits()) {
+                    Map<String, Object> data = new HashMap<>();
+                    Map<String, Object> source = hit.getSourceAsMap();
+                    data.put("date", source.get("date"));
+                    data.put("degree", source.get("degree"));
+                    subData.add(data);
+                }
 
-            mainData.put("data", subData);
-//            mainData.put(subAgg.getKeyAsString(), subData);
-            responseData.add(mainData);
-        }
+                mainData.put("data", subData);
+//                mainData.put(subAgg.getKeyAsString(), subData);
+                responseData.add(mainData);
+            }
 
-        return responseData;
+            return responseData;
+        });
     }
 
     @RequestMapping("/init/{user}/{machine}")
-    public List<Map<String, List<Map<String, Object>>>> getTemperaturesInit(@PathVariable String user, @PathVariable String machine){
+    public CompletableFuture<List<Map<String, List<Map<String, Object>>>>> getTemperaturesInit(@PathVariable String user, @PathVariable String machine){
         return getTemperaturesByInterval(user, machine, 10);
     }
 
 
     @RequestMapping("/{user}/{machine}")
-    public List<Map<String, List<Map<String, Object>>>> getTemperature(@PathVariable String user, @PathVariable String machine){
+    public CompletableFuture<List<Map<String, List<Map<String, Object>>>>> getTemperature(@PathVariable String user, @PathVariable String machine){
         return getTemperaturesByInterval(user, machine, 1);
     }
 
-//
-//    @RequestMapping("/init/{user}/{machine}")
-//    public List<Map<String, List<Map<String, Object>>>> test(@PathVariable String user, @PathVariable String machine){
-//
-//
-//        LocalDateTime datetime = LocalDateTime.now();
-//        LocalDate date = datetime.toLocalDate();
-//        LocalDateTime datetimeMinus10 = datetime.minusMinutes(interval);
-//
-//
-//        String index_name = index + date.toString();
-//
-//        RangeQueryBuilder rangeQueryBuilder = QueryBuilders.rangeQuery("date")
-//                .gte(datetimeMinus10.format(formatter))
-//                .lte(datetime.format(formatter));
-//
-//        QueryBuilder query = boolQuery().must(termQuery("user", user))
-//                .must(termQuery("machine", machine)).must(rangeQueryBuilder);
-//
-//
-//        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-//                .withQuery(constantScoreQuery(query))
-//                .withIndices(index_name)
-//                .withRoute(user)
-//                .addAggregation(AggregationBuilders.terms("main").field("lane")
-//                    .subAggregation(AggregationBuilders.topHits("sub").size(60)))
-//                .build();
-//
-//
-//
-//        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-//            @Override
-//            public Aggregations extract(SearchResponse response) {
-//                return response.getAggregations();
-//            }
-//        });
-//
-//        Terms mainAggs = aggregations.get("main");
-//        List<Map<String, List<Map<String, Object>>>> responseData = new ArrayList<>();
-//        String mainKey;
-//
-//
-//        for (Terms.Bucket subAgg : mainAggs.getBuckets()) {
-//            Map<String, List<Map<String, Object>>> mainData = new HashMap<>();
-//            List<Map<String, Object>> subData = new ArrayList<>();
-//
-//            TopHits topHits = subAgg.getAggregations().get("sub");
-//
-//            for (SearchHit hit : topHits.getHits().getHits()) {
-//                Map<String, Object> data = new HashMap<>();
-//                Map<String, Object> source = hit.getSourceAsMap();
-//                data.put("date", source.get("date"));
-//                data.put("degree", source.get("degree"));
-//                subData.add(data);
-//            }
-//
-//            mainData.put(subAgg.getKeyAsString(), subData);
-//            responseData.add(mainData);
-//        }
-//
-//        return responseData;
-//    }
+
+    /**
+     *
+     * Return temperature of every lane (or a lane) between start and end, downsampled to min / avg / max per bucket
+     * The bucket width grows with the range so a chart of 'width' pixels gets about the same number of points
+     *
+     * @param user
+     * @param machine
+     * @param lane
+     * @param start yyyy-MM-dd HH:mm:ss
+     * @param end yyyy-MM-dd HH:mm:ss
+     * @param width chart width in pixels
+     * @return
+     */
+    @RequestMapping(value = {"/history/{user}/{machine}", "/history/{user}/{machine}/{lane}"})
+    public CompletableFuture<List<Map<String, Object>>> getTemperatureHistory(@PathVariable String user, @PathVariable String machine,
+                                                                      @PathVariable(required = false) Integer lane,
+                                                                      @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                                                      @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                                                      @RequestParam(defaultValue = "800") int width){
+        if(!start.isBefore(end))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "start must be before end");
+        if(width <= 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "width must be positive");
+
+        return sensorHistory.history(index, user, machine, lane, start, end, width);
+    }
+
+
+    /**
+     *
+     * Return the latest temperature and min / avg / max of the last 'window' minutes for every lane of every machine of a user
+     * Machines are paged, pass the "after" of a response to get the next page
+     *
+     * @param user
+     * @param after last machine of the previous page
+     * @param size machines per page
+     * @param window minutes
+     * @return
+     */
+    @RequestMapping("/fleet/{user}")
+    public CompletableFuture<Map<String, Object>> getTemperatureFleet(@PathVariable String user,
+                                                              @RequestParam(required = false) String after,
+                                                              @RequestParam(defaultValue = "100") int size,
+                                                              @RequestParam(defaultValue = "10") int window){
+        if(size <= 0 || window <= 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size and window must be positive");
+
+        return sensorFleet.snapshot(index, user, after, size, window);
+    }
+
+
+    /**
+     *
+     * Push new temperature data of every lane as server-sent events
+     *
+     * @param user
+     * @param machine
+     * @return
+     */
+    @RequestMapping("/stream/{user}/{machine}")
+    public SseEmitter streamTemperatures(@PathVariable String user, @PathVariable String machine){
+        return sensorFeed.subscribe(index, user, machine, null);
+    }
+
+
+    /**
+     *
+     * Push new temperature data of a lane as server-sent events
+     *
+     * @param user
+     * @param machine
+     * @param lane
+     * @return
+     */
+    @RequestMapping("/stream/{user}/{machine}/{lane}")
+    public SseEmitter streamTemperature(@PathVariable String user, @PathVariable String machine,
+                                    @PathVariable int lane){
+        return sensorFeed.subscribe(index, user, machine, lane);
+    }
 
 }
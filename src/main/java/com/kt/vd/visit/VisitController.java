@@ -1,27 +1,29 @@
 package com.kt.vd.visit;
 
 
-import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ElasticSearch.DistinctCounter;
+import com.kt.vd.ElasticSearch.KeysetAggregator;
+import com.kt.vd.Redis.CacheWarmer;
+import com.kt.vd.Redis.IntegerResult;
 import com.kt.vd.Redis.JsonListResult;
 import com.kt.vd.Redis.RedisManager;
 import com.kt.vd.Redis.RedisResult;
-import org.elasticsearch.action.search.SearchResponse;
+import com.kt.vd.result.TermCount;
 import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.search.aggregations.AggregationBuilders;
-import org.elasticsearch.search.aggregations.Aggregations;
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
-import org.springframework.data.elasticsearch.core.ResultsExtractor;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
-import org.springframework.data.elasticsearch.core.query.SearchQuery;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
@@ -30,14 +32,44 @@ import static org.elasticsearch.index.query.QueryBuilders.*;
 @RestController
 @RequestMapping(value = "/visit", method =  RequestMethod.GET )
 public class VisitController {
-    @Autowired
-    ElasticsearchTemplate esTemplate;
     @Autowired
     RedisManager redisManager;
+    @Autowired
+    DailyAggregator dailyAggregator;
+    @Autowired
+    CacheWarmer cacheWarmer;
+    @Autowired
+    KeysetAggregator keysetAggregator;
+    @Autowired
+    DistinctCounter distinctCounter;
 
-    static final private String index = "visit-";
+    static final String index = "visit-";
     static final private String visitByMahcinePrefix = "visit";
     static final private String visitByLocPrefix = "visit:loc";
+    static final String visitByMachineDailyPrefix = "visit:daily";
+    static final String visitByLocDailyPrefix = "visit:loc:daily";
+    static final private String visitMachinesByLocPrefix = "visit:distinct:loc";
+    static final String visitMachinesByLocDailyPrefix = "visit:distinct:loc:daily";
+
+    /*
+     * Terms kept per day in the partial aggregates, shared with VisitRollup
+     */
+    static final int hourSize = 24;
+    static final int locSize = 100;
+    static final int locResponseSize = 10;
+
+    @PostConstruct
+    public void registerWarmers(){
+        cacheWarmer.register(visitByMahcinePrefix, (key, parameters, start, end) -> parameters.size() > 1
+                ? loadVisitByMachine(parameters.get(0), Optional.of(parameters.get(1)), start, end, key)
+                : loadVisitByMachine(parameters.get(0), Optional.empty(), start, end, key));
+        cacheWarmer.register(visitByLocPrefix, (key, parameters, start, end) -> parameters.size() > 2
+                ? loadVisitByLoc(parameters.get(0), parameters.get(2), Optional.of(parameters.get(1)), start, end, key)
+                : loadVisitByLoc(parameters.get(0), parameters.get(1), Optional.empty(), start, end, key));
+        cacheWarmer.register(visitMachinesByLocPrefix, (key, parameters, start, end) ->
+                loadVisitMachinesByLoc(parameters.get(0), parameters.get(1), start, end, key));
+    }
+
 
     /**
      *
@@ -50,12 +82,10 @@ public class VisitController {
      * @return
      */
     @RequestMapping(value = {"/{user}","/{user}/{machine}"})
-    public List<Map<String,Object>> getVisitByMachine(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
+    public CompletableFuture<List<Map<String,Object>>> getVisitByMachine(@PathVariable String user, @PathVariable(required = false) Optional<String> machine,
                                                        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                        @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
 
-        boolean cacheFlag = false;
-
         JsonListResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
@@ -65,47 +95,21 @@ public class VisitController {
                 cacheData = redisManager.getJsonListResult(visitByMahcinePrefix, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
-        String[] index_names = IndexManager.generateIndex(index, start, end);
-
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
-        if(machine.isPresent())
-            boolQuery.must(termQuery("machine", machine.get()));
-
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("agg").field("hour_of_date").size(24).order(Terms.Order.term(true)))
-                .build();
-
-
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
-            }
-        });
-        Terms agg = aggregations.get("agg");
+        return redisManager.loadOnce(cacheKey, () -> loadVisitByMachine(user, machine, start, end, cacheKey));
+    }
 
-        List<Map<String, Object>> responseData= new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("hour", entry.getKey());
-            data.put("count", entry.getDocCount());
 
-            responseData.add(data);
-        }
-
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
-        }
-
-        return responseData;
+    /**
+     * Cache key of getVisitByMachine, read together with the other widgets by the dashboard
+     */
+    public String visitByMachineKey(String user, Optional<String> machine, LocalDate start, LocalDate end){
+        return machine.isPresent()
+                ? redisManager.generateRedisKey(visitByMahcinePrefix, user, machine.get(), start.toString(), end.toString())
+                : redisManager.generateRedisKey(visitByMahcinePrefix, user, start.toString(), end.toString());
     }
 
 
@@ -121,14 +125,12 @@ public class VisitController {
      * @return
      */
     @RequestMapping(value = {"loc/{province}/{user}","loc/{province}/{municipality}/{user}"})
-    public List<Map<String,Object>> getVisitByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
+    public CompletableFuture<List<Map<String,Object>>> getVisitByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
                                                   @PathVariable(required = false, value = "municipality") Optional<String> municipality,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
 
 
-        boolean cacheFlag = false;
-
         JsonListResult cacheData = null;
 
         if(!redisManager.permitCache(end)) {
@@ -138,51 +140,142 @@ public class VisitController {
                 cacheData = redisManager.getJsonListResult(visitByLocPrefix, province, user, start.toString(), end.toString());
             }
             if (cacheData.getValue() != null)
-                return cacheData.getValue();
-            else
-                cacheFlag = true;
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
 
+        return redisManager.loadOnce(cacheKey, () -> loadVisitByLoc(province, user, municipality, start, end, cacheKey));
+    }
 
-        String agg_term = "municipality";
-        String[] index_names = IndexManager.generateIndex(index, start, end);
 
-        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
-                .must(termQuery("province", province));
-        if(municipality.isPresent()){
-            boolQuery.must(termQuery("municipality", municipality.get()));
-            agg_term = "submunicipality";
+    /**
+     *
+     * Return the visit count of every location, page by page in key order
+     * Pass the "after" of a response to get the next page, the last page has none
+     *
+     * @param province
+     * @param user
+     * @param municipality
+     * @param after location of the last count of the previous page
+     * @param size counts per page
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping(value = {"/breakdown/loc/{province}/{user}","/breakdown/loc/{province}/{municipality}/{user}"})
+    public CompletableFuture<Map<String,Object>> getVisitBreakdownByLoc(@PathVariable String province, @PathVariable(value = "user") String user,
+                                                         @PathVariable(required = false, value = "municipality") Optional<String> municipality,
+                                                         @RequestParam(required = false) List<String> after,
+                                                         @RequestParam(defaultValue = "100") int size,
+                                                         @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                         @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+        String agg_term = municipality.isPresent() ? "submunicipality" : "municipality";
+        List<String> fields = Collections.singletonList(agg_term);
+
+        if(after != null && after.size() != fields.size())
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "after must be a location");
+        if(size <= 0)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size must be positive");
+
+        return keysetAggregator.page(index, visitByLocFilter(province, user, municipality), user, fields,
+                after == null ? Collections.emptyList() : after, size, start, end);
+    }
+
+
+    /**
+     *
+     * Return the number of distinct machines visited in a location (approximate, HyperLogLog)
+     *
+     * @param province
+     * @param user
+     * @param start
+     * @param end
+     * @return
+     */
+    @RequestMapping("/distinct/loc/{province}/{user}")
+    public CompletableFuture<Integer> getVisitMachinesByLoc(@PathVariable String province, @PathVariable String user,
+                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end){
+
+        IntegerResult cacheData = null;
+
+        if(!redisManager.permitCache(end)) {
+            cacheData = redisManager.getIntegerResult(visitMachinesByLocPrefix, province, user, start.toString(), end.toString());
+            if (cacheData.getValue() != null)
+                return CompletableFuture.completedFuture(cacheData.getValue());
         }
+        final String cacheKey = cacheData == null ? null : cacheData.getKey();
+
+        return redisManager.loadOnce(cacheKey, () -> loadVisitMachinesByLoc(province, user, start, end, cacheKey));
+    }
 
-        SearchQuery searchQuery = new NativeSearchQueryBuilder()
-                .withQuery(constantScoreQuery(boolQuery))
-                .withIndices(index_names)
-                .withRoute(user)
-                .addAggregation(AggregationBuilders.terms("agg").field(agg_term))
-                .build();
 
+    /*
+     * Computation behind each endpoint, also run by the cache warmer
+     */
 
-        Aggregations aggregations = esTemplate.query(searchQuery, new ResultsExtractor<Aggregations>() {
-            @Override
-            public Aggregations extract(SearchResponse response) {
-                return response.getAggregations();
+    private CompletableFuture<List<Map<String, Object>>> loadVisitByMachine(String user, Optional<String> machine, LocalDate start, LocalDate end, String cacheKey){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user));
+        if(machine.isPresent())
+            boolQuery.must(termQuery("machine", machine.get()));
+
+        String[] dailyKey = machine.isPresent() ? new String[]{user, machine.get()} : new String[]{user};
+
+        return dailyAggregator.countByTerm(index, visitByMachineDailyPrefix, constantScoreQuery(boolQuery), user,
+                "hour_of_date", hourSize, start, end, dailyKey).thenApply(counts -> {
+
+            List<Map<String, Object>> responseData =
+                    TermCount.fromEntries("hour", "count", DailyAggregator.orderByKey(counts, hourSize));
+
+            if(cacheKey != null){
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
             }
+
+            return responseData;
         });
-        Terms agg = aggregations.get("agg");
+    }
 
-        List<Map<String, Object>> responseData= new ArrayList<>();
-        for (Terms.Bucket entry : agg.getBuckets()) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("loc", entry.getKey());
-            data.put("count", entry.getDocCount());
 
-            responseData.add(data);
-        }
+    private CompletableFuture<List<Map<String, Object>>> loadVisitByLoc(String province, String user, Optional<String> municipality, LocalDate start, LocalDate end, String cacheKey){
+        String agg_term = municipality.isPresent() ? "submunicipality" : "municipality";
+        String[] dailyKey = municipality.isPresent() ? new String[]{province, municipality.get(), user} : new String[]{province, user};
 
-        if(cacheFlag){
-            redisManager.setJsonListOpts(cacheData.getKey(), responseData, 1, TimeUnit.HOURS);
-        }
+        return dailyAggregator.countByTerm(index, visitByLocDailyPrefix, visitByLocFilter(province, user, municipality), user,
+                agg_term, locSize, start, end, dailyKey).thenApply(counts -> {
+
+            List<Map<String, Object>> responseData = TermCount.fromEntries("loc", "count",
+                    DailyAggregator.orderByCount(counts, locResponseSize));
+
+            if(cacheKey != null){
+                redisManager.setJsonListOpts(cacheKey, responseData, 1, TimeUnit.HOURS);
+            }
+
+            return responseData;
+        });
+    }
+
+
+    private CompletableFuture<Integer> loadVisitMachinesByLoc(String province, String user, LocalDate start, LocalDate end, String cacheKey){
+        return distinctCounter.countDistinct(index, visitMachinesByLocDailyPrefix, visitByLocFilter(province, user, Optional.empty()), user,
+                "machine", start, end, province, user).thenApply(distinct -> {
+
+            int count = distinct.intValue();
+
+            if(cacheKey != null){
+                redisManager.setIntegerOpts(cacheKey, count, 1, TimeUnit.HOURS);
+            }
+
+            return count;
+        });
+    }
+
+
+    private static QueryBuilder visitByLocFilter(String province, String user, Optional<String> municipality){
+        BoolQueryBuilder boolQuery = boolQuery().must(termQuery("user", user))
+                .must(termQuery("province", province));
+        if(municipality.isPresent())
+            boolQuery.must(termQuery("municipality", municipality.get()));
 
-        return responseData;
+        return constantScoreQuery(boolQuery);
     }
 }
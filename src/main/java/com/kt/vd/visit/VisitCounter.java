@@ -0,0 +1,41 @@
+package com.kt.vd.visit;
+
+
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ingest.VisitEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Today's counters of the visit endpoints read by countByTerm, for every ingested visit of today
+ */
+@Component
+public class VisitCounter {
+
+    @Autowired
+    DailyAggregator dailyAggregator;
+
+
+    /**
+     * Count ingested visits of today, events of closed days are left to the rollup
+     * @param events
+     */
+    public void record(List<VisitEvent> events){
+        LocalDate today = LocalDate.now();
+        Map<String, Map<String, Long>> increments = new HashMap<>();
+        for (VisitEvent event : events) {
+            if(!event.getDate().toLocalDate().equals(today))
+                continue;
+            long hour = event.getDate().getHour();
+
+            dailyAggregator.count(increments, VisitController.visitByMachineDailyPrefix, hour, event.getUser());
+            dailyAggregator.count(increments, VisitController.visitByMachineDailyPrefix, hour, event.getUser(), event.getMachine());
+        }
+        dailyAggregator.recordCounts(increments);
+    }
+}
@@ -0,0 +1,91 @@
+package com.kt.vd.visit;
+
+
+import com.kt.vd.ElasticSearch.DailyAggregator;
+import com.kt.vd.ElasticSearch.DailyRollup;
+import com.kt.vd.ElasticSearch.DistinctCounter;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Partial aggregates of the visit endpoints for every user, machine and location of a closed day
+ */
+@Component
+public class VisitRollup extends DailyRollup {
+
+    @Autowired
+    DistinctCounter distinctCounter;
+
+    @Override
+    protected String index() {
+        return VisitController.index;
+    }
+
+    @Override
+    protected List<AbstractAggregationBuilder> userAggregations() {
+        return Arrays.asList(
+                hourAgg(),
+                AggregationBuilders.terms("machine").field("machine").size(machineSize)
+                        .subAggregation(hourAgg()),
+                AggregationBuilders.terms("province").field("province").size(VisitController.locSize)
+                        .subAggregation(locAgg("municipality"))
+                        .subAggregation(AggregationBuilders.terms("municipality").field("municipality").size(VisitController.locSize)
+                                .subAggregation(locAgg("submunicipality"))));
+    }
+
+    @Override
+    protected void collect(Terms.Bucket user, LocalDate day, Map<String, List<Map<String, Object>>> partials) {
+        partials.put(dailyAggregator.partialKey(VisitController.visitByMachineDailyPrefix, day, user.getKeyAsString()),
+                DailyAggregator.toPartial(user.getAggregations().get("hour")));
+
+        Terms machines = user.getAggregations().get("machine");
+        for (Terms.Bucket machine : machines.getBuckets())
+            partials.put(dailyAggregator.partialKey(VisitController.visitByMachineDailyPrefix, day, user.getKeyAsString(), machine.getKeyAsString()),
+                    DailyAggregator.toPartial(machine.getAggregations().get("hour")));
+
+        Terms provinces = user.getAggregations().get("province");
+        for (Terms.Bucket province : provinces.getBuckets()) {
+            partials.put(dailyAggregator.partialKey(VisitController.visitByLocDailyPrefix, day, province.getKeyAsString(), user.getKeyAsString()),
+                    DailyAggregator.toPartial(province.getAggregations().get("agg")));
+
+            Terms municipalities = province.getAggregations().get("municipality");
+            for (Terms.Bucket municipality : municipalities.getBuckets())
+                partials.put(dailyAggregator.partialKey(VisitController.visitByLocDailyPrefix, day,
+                        province.getKeyAsString(), municipality.getKeyAsString(), user.getKeyAsString()),
+                        DailyAggregator.toPartial(municipality.getAggregations().get("agg")));
+        }
+    }
+
+    @Override
+    protected void staleKeys(Map<String, Object> document, LocalDate day, Set<String> keys) {
+        String user = (String) document.get("user");
+        String machine = (String) document.get("machine");
+        String province = (String) document.get("province");
+        String municipality = (String) document.get("municipality");
+
+        keys.add(dailyAggregator.partialKey(VisitController.visitByMachineDailyPrefix, day, user));
+        keys.add(dailyAggregator.partialKey(VisitController.visitByMachineDailyPrefix, day, user, machine));
+        keys.add(dailyAggregator.partialKey(VisitController.visitByLocDailyPrefix, day, province, user));
+        keys.add(dailyAggregator.partialKey(VisitController.visitByLocDailyPrefix, day, province, municipality, user));
+        keys.add(distinctCounter.sketchKey(VisitController.visitMachinesByLocDailyPrefix, day, province, user));
+    }
+
+
+    private static TermsAggregationBuilder hourAgg(){
+        return AggregationBuilders.terms("hour").field("hour_of_date").size(VisitController.hourSize);
+    }
+
+    private static TermsAggregationBuilder locAgg(String field){
+        return AggregationBuilders.terms("agg").field(field).size(VisitController.locSize);
+    }
+}
@@ -0,0 +1,219 @@
+package com.kt.vd.ElasticSearch;
+
+import com.kt.vd.Redis.JsonListResult;
+import com.kt.vd.Redis.RedisManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class DailyAggregatorTest {
+
+    private static final String index = "sell-";
+    private static final String prefix = "sell:daily";
+    private static final String user = "user1";
+
+    private final LocalDate today = LocalDate.now();
+    private DailyAggregator dailyAggregator;
+
+
+    @Before
+    public void setUp(){
+        dailyAggregator = new DailyAggregator();
+        dailyAggregator.asyncSearch = mock(AsyncSearch.class);
+        dailyAggregator.redisManager = mock(RedisManager.class);
+        dailyAggregator.indexManager = mock(IndexManager.class);
+        when(dailyAggregator.asyncSearch.aggregate(any())).thenReturn(new CompletableFuture<>());
+    }
+
+    private static Map<String, Object> term(Object key, long count){
+        Map<String, Object> data = new HashMap<>();
+        data.put(DailyAggregator.keyField, key);
+        data.put(DailyAggregator.countField, count);
+        return data;
+    }
+
+    private void cached(List<LocalDate> days, List<List<Map<String, Object>>> partials){
+        List<JsonListResult> results = new ArrayList<>();
+        for (int i = 0; i < days.size(); i++)
+            results.add(new JsonListResult(prefix + ":" + user + ":" + days.get(i), partials.get(i)));
+        when(dailyAggregator.redisManager.getDailyJsonListResults(prefix, days, user)).thenReturn(results);
+    }
+
+    private CompletableFuture<Map<Object, Long>> countByTerm(int size, LocalDate start, LocalDate end){
+        return dailyAggregator.countByTerm(index, prefix, null, user, "drink_type", size, start, end, user);
+    }
+
+
+    @Test
+    public void mergesClosedDayPartials(){
+        LocalDate first = today.minusDays(2);
+        LocalDate second = today.minusDays(1);
+        cached(Arrays.asList(first, second), Arrays.asList(
+                Arrays.asList(term("coke", 3), term("cider", 1)),
+                Collections.singletonList(term("coke", 2))));
+
+        Map<Object, Long> counts = countByTerm(10, first, second).join();
+
+        Map<Object, Long> expected = new HashMap<>();
+        expected.put("coke", 5L);
+        expected.put("cider", 1L);
+        assertEquals(expected, counts);
+        verify(dailyAggregator.asyncSearch, never()).aggregate(any());
+    }
+
+    @Test
+    public void mergesNumericTermsReadBackAsInteger(){
+        LocalDate first = today.minusDays(2);
+        LocalDate second = today.minusDays(1);
+        cached(Arrays.asList(first, second), Arrays.asList(
+                Collections.singletonList(term(7, 1)),
+                Collections.singletonList(term(7L, 2))));
+
+        Map<Object, Long> counts = countByTerm(24, first, second).join();
+
+        assertEquals(Collections.singletonMap(7L, 3L), counts);
+    }
+
+    @Test
+    public void skipsClosedDaysMissingFromCatalog(){
+        LocalDate first = today.minusDays(2);
+        LocalDate second = today.minusDays(1);
+        cached(Arrays.asList(first, second), Arrays.asList(
+                null,
+                Collections.singletonList(term("coke", 2))));
+        when(dailyAggregator.indexManager.exists(index + first)).thenReturn(false);
+
+        Map<Object, Long> counts = countByTerm(10, first, second).join();
+
+        assertEquals(Collections.singletonMap("coke", 2L), counts);
+        verify(dailyAggregator.asyncSearch, never()).aggregate(any());
+    }
+
+    @Test
+    public void searchesClosedDaysMissingFromCache(){
+        LocalDate first = today.minusDays(2);
+        LocalDate second = today.minusDays(1);
+        cached(Arrays.asList(first, second), Arrays.asList(
+                null,
+                Collections.singletonList(term("coke", 2))));
+        when(dailyAggregator.indexManager.exists(index + first)).thenReturn(true);
+
+        CompletableFuture<Map<Object, Long>> counts = countByTerm(10, first, second);
+
+        assertFalse(counts.isDone());
+        verify(dailyAggregator.asyncSearch, times(1)).aggregate(any());
+    }
+
+    @Test
+    public void answersEmptyRangeWithoutLookups(){
+        Map<Object, Long> counts = countByTerm(10, today.plusDays(1), today.plusDays(2)).join();
+
+        assertTrue(counts.isEmpty());
+        verifyZeroInteractions(dailyAggregator.asyncSearch);
+    }
+
+
+    @Test
+    public void readsTodayFromCountersWhenAuthoritative(){
+        dailyAggregator.authoritative = true;
+        when(dailyAggregator.indexManager.exists(index + today)).thenReturn(true);
+        Map<String, Long> counters = new HashMap<>();
+        counters.put("s:coke", 4L);
+        counters.put("s:cider", 2L);
+        counters.put("s:water", 1L);
+        when(dailyAggregator.redisManager.getCounters(eq(prefix), any())).thenReturn(counters);
+
+        Map<Object, Long> counts = countByTerm(2, today, today).join();
+
+        Map<Object, Long> expected = new HashMap<>();
+        expected.put("coke", 4L);
+        expected.put("cider", 2L);
+        assertEquals(expected, counts);
+        verify(dailyAggregator.asyncSearch, never()).aggregate(any());
+    }
+
+    @Test
+    public void keepsNumericCounterTermsNumeric(){
+        dailyAggregator.authoritative = true;
+        when(dailyAggregator.indexManager.exists(index + today)).thenReturn(true);
+        when(dailyAggregator.redisManager.getCounters(eq(prefix), any())).thenReturn(Collections.singletonMap("n:13", 3L));
+
+        Map<Object, Long> counts = countByTerm(24, today, today).join();
+
+        assertEquals(Collections.singletonMap(13L, 3L), counts);
+    }
+
+    @Test
+    public void searchesTodayWhileCountersAreMissing(){
+        dailyAggregator.authoritative = true;
+        when(dailyAggregator.indexManager.exists(index + today)).thenReturn(true);
+        when(dailyAggregator.redisManager.getCounters(eq(prefix), any())).thenReturn(null);
+
+        countByTerm(10, today, today);
+
+        verify(dailyAggregator.asyncSearch, times(1)).aggregate(any());
+    }
+
+    @Test
+    public void searchesTodayUnlessAuthoritative(){
+        when(dailyAggregator.indexManager.exists(index + today)).thenReturn(true);
+
+        countByTerm(10, today, today);
+
+        verify(dailyAggregator.redisManager, never()).getCounters(any(), any());
+        verify(dailyAggregator.asyncSearch, times(1)).aggregate(any());
+    }
+
+
+    @Test
+    public void ordersByCountThenKey(){
+        Map<Object, Long> counts = new HashMap<>();
+        counts.put("water", 2L);
+        counts.put("coke", 5L);
+        counts.put("cider", 2L);
+        counts.put("tea", 1L);
+
+        List<Map.Entry<Object, Long>> top = DailyAggregator.orderByCount(counts, 3);
+
+        assertEquals(3, top.size());
+        assertEquals("coke", top.get(0).getKey());
+        assertEquals("cider", top.get(1).getKey());
+        assertEquals("water", top.get(2).getKey());
+    }
+
+    @Test
+    public void ordersNumericKeysNumerically(){
+        Map<Object, Long> counts = new HashMap<>();
+        counts.put(10L, 1L);
+        counts.put(2L, 1L);
+        counts.put(0L, 1L);
+
+        List<Map.Entry<Object, Long>> hours = DailyAggregator.orderByKey(counts, 24);
+        List<Map.Entry<Object, Long>> first = DailyAggregator.orderByKey(counts, 2);
+
+        assertEquals(Arrays.asList(0L, 2L, 10L), Arrays.asList(hours.get(0).getKey(), hours.get(1).getKey(), hours.get(2).getKey()));
+        assertEquals(2, first.size());
+        assertEquals(2L, first.get(1).getKey());
+    }
+
+    @Test
+    public void totalsSumSubTerms(){
+        Map<Object, Map<Object, Long>> counts = new HashMap<>();
+        counts.computeIfAbsent("seoul", key -> new HashMap<>()).put("coke", 3L);
+        counts.get("seoul").put("cider", 2L);
+        counts.computeIfAbsent("busan", key -> new HashMap<>()).put("coke", 1L);
+
+        Map<Object, Long> totals = DailyAggregator.totals(counts);
+
+        assertEquals(Long.valueOf(5L), totals.get("seoul"));
+        assertEquals(Long.valueOf(1L), totals.get("busan"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.kt.vd.ElasticSearch;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IndexManagerTest {
+
+    private static IndexManager indexManager(String... indices){
+        IndexManager indexManager = new IndexManager();
+        indexManager.queryExecutor = mock(QueryExecutor.class);
+        when(indexManager.queryExecutor.indices(IndexManager.patterns)).thenReturn(indices);
+        indexManager.refresh();
+        return indexManager;
+    }
+
+    private static String[] days(String index, LocalDate start, LocalDate end){
+        List<String> index_names = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1))
+            index_names.add(index + day.toString());
+        return index_names.toArray(new String[index_names.size()]);
+    }
+
+    private static String[] concat(String[]... arrays){
+        List<String> all = new ArrayList<>();
+        for (String[] array : arrays)
+            all.addAll(Arrays.asList(array));
+        return all.toArray(new String[all.size()]);
+    }
+
+
+    @Test
+    public void collapsesWholeMonth(){
+        IndexManager indexManager = indexManager(days("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)));
+
+        assertArrayEquals(new String[]{"sell-2017-03-*"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)));
+    }
+
+    @Test
+    public void collapsesWholeYear(){
+        IndexManager indexManager = indexManager(days("sell-", LocalDate.of(2016, 1, 1), LocalDate.of(2016, 12, 31)));
+
+        assertArrayEquals(new String[]{"sell-2016-*"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2016, 1, 1), LocalDate.of(2016, 12, 31)));
+    }
+
+    @Test
+    public void keepsDaysAroundWholeMonths(){
+        IndexManager indexManager = indexManager(days("sell-", LocalDate.of(2017, 1, 20), LocalDate.of(2017, 4, 10)));
+
+        assertArrayEquals(new String[]{"sell-2017-01-30", "sell-2017-01-31", "sell-2017-02-*", "sell-2017-03-*",
+                        "sell-2017-04-01", "sell-2017-04-02"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 1, 30), LocalDate.of(2017, 4, 2)));
+    }
+
+    @Test
+    public void collapsesYearThenMonths(){
+        IndexManager indexManager = indexManager(days("sell-", LocalDate.of(2016, 1, 1), LocalDate.of(2017, 2, 28)));
+
+        assertArrayEquals(new String[]{"sell-2016-*", "sell-2017-01-*", "sell-2017-02-01"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2016, 1, 1), LocalDate.of(2017, 2, 1)));
+    }
+
+    @Test
+    public void partialMonthStaysDaily(){
+        IndexManager indexManager = indexManager(days("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)));
+
+        assertArrayEquals(days("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 30)),
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 30)));
+    }
+
+    @Test
+    public void trimsMissingDays(){
+        IndexManager indexManager = indexManager("sell-2017-03-02", "sell-2017-03-05", "visit-2017-03-03");
+
+        assertArrayEquals(new String[]{"sell-2017-03-02", "sell-2017-03-05"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 10)));
+    }
+
+    @Test
+    public void dropsWildcardsMatchingNothing(){
+        IndexManager indexManager = indexManager(concat(
+                days("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)),
+                days("visit-", LocalDate.of(2017, 4, 1), LocalDate.of(2017, 4, 30))));
+
+        assertArrayEquals(new String[]{"sell-2017-03-*"},
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 5, 31)));
+        assertArrayEquals(new String[0],
+                indexManager.resolveIndex("sell-", LocalDate.of(2015, 1, 1), LocalDate.of(2015, 12, 31)));
+    }
+
+    @Test
+    public void doesNotCollapseTheCurrentMonth(){
+        LocalDate today = LocalDate.now();
+        IndexManager indexManager = indexManager("sell-" + today.toString());
+
+        assertArrayEquals(new String[]{"sell-" + today.toString()},
+                indexManager.resolveIndex("sell-", today, today.plusDays(5)));
+    }
+
+    @Test
+    public void generatesEveryDayUntilTheCatalogIsLoaded(){
+        IndexManager indexManager = new IndexManager();
+
+        assertArrayEquals(days("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)),
+                indexManager.resolveIndex("sell-", LocalDate.of(2017, 3, 1), LocalDate.of(2017, 3, 31)));
+        assertTrue(indexManager.exists("sell-2017-03-01"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.kt.vd.ElasticSearch;
+
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class KeysetAggregatorTest {
+
+    private static final LocalDate day = LocalDate.of(2018, 1, 1);
+    private static final List<String> fields = Arrays.asList("municipality", "drink_type");
+
+    private KeysetAggregator keysetAggregator;
+
+
+    @Before
+    public void setUp(){
+        keysetAggregator = new KeysetAggregator();
+        keysetAggregator.asyncSearch = mock(AsyncSearch.class);
+        keysetAggregator.indexManager = mock(IndexManager.class);
+        keysetAggregator.maxSize = 100;
+        when(keysetAggregator.indexManager.resolveIndex("sell-", day, day)).thenReturn(new String[]{"sell-" + day});
+
+        // municipality a : coke 3, tea 1 / municipality b : coke 2, in key order as ElasticSearch returns them
+        Aggregations aggregations = aggregations(terms("municipality",
+                bucket("a", 4, aggregations(terms("drink_type", bucket("coke", 3, null), bucket("tea", 1, null)))),
+                bucket("b", 2, aggregations(terms("drink_type", bucket("coke", 2, null))))));
+        when(keysetAggregator.asyncSearch.aggregate(any())).thenReturn(CompletableFuture.completedFuture(aggregations));
+    }
+
+    private static Aggregations aggregations(Terms terms){
+        return new Aggregations(Collections.singletonList(terms));
+    }
+
+    private static Terms terms(String name, Terms.Bucket... buckets){
+        Terms terms = mock(Terms.class);
+        when(terms.getName()).thenReturn(name);
+        doReturn(Arrays.asList(buckets)).when(terms).getBuckets();
+        return terms;
+    }
+
+    private static Terms.Bucket bucket(String key, long count, Aggregations sub){
+        Terms.Bucket bucket = mock(Terms.Bucket.class);
+        when(bucket.getKeyAsString()).thenReturn(key);
+        when(bucket.getDocCount()).thenReturn(count);
+        when(bucket.getAggregations()).thenReturn(sub);
+        return bucket;
+    }
+
+    private Map<String, Object> page(int size){
+        return keysetAggregator.page("sell-", matchAllQuery(), "user1", fields, Collections.emptyList(), size, day, day).join();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> combinations(Map<String, Object> page){
+        List<String> combinations = new ArrayList<>();
+        for (Map<String, Object> bucket : (List<Map<String, Object>>) page.get("buckets"))
+            combinations.add(bucket.get("municipality") + "/" + bucket.get("drink_type") + "=" + bucket.get(KeysetAggregator.countField));
+        return combinations;
+    }
+
+
+    @Test
+    public void fullPageEndsWithItsLastCombination(){
+        Map<String, Object> page = page(2);
+
+        assertEquals(Arrays.asList("a/coke=3", "a/tea=1"), combinations(page));
+        assertEquals(Arrays.asList("a", "tea"), page.get("after"));
+    }
+
+    @Test
+    public void pageStopsAtSizeAcrossOuterTerms(){
+        Map<String, Object> page = page(3);
+
+        assertEquals(Arrays.asList("a/coke=3", "a/tea=1", "b/coke=2"), combinations(page));
+        assertEquals(Arrays.asList("b", "coke"), page.get("after"));
+    }
+
+    @Test
+    public void shortPageIsTheLast(){
+        Map<String, Object> page = page(10);
+
+        assertEquals(3, combinations(page).size());
+        assertNull(page.get("after"));
+    }
+
+    @Test
+    public void sizeIsCappedAtMaxSize(){
+        keysetAggregator.maxSize = 1;
+
+        Map<String, Object> page = page(10);
+
+        assertEquals(Collections.singletonList("a/coke=3"), combinations(page));
+        assertEquals(Arrays.asList("a", "coke"), page.get("after"));
+    }
+
+    @Test
+    public void emptyPageWithoutIndices(){
+        when(keysetAggregator.indexManager.resolveIndex("sell-", day.minusDays(1), day.minusDays(1))).thenReturn(new String[0]);
+
+        Map<String, Object> page = keysetAggregator.page("sell-", matchAllQuery(), "user1", fields,
+                Collections.emptyList(), 10, day.minusDays(1), day.minusDays(1)).join();
+
+        assertTrue(combinations(page).isEmpty());
+        assertNull(page.get("after"));
+        verifyZeroInteractions(keysetAggregator.asyncSearch);
+    }
+}
@@ -0,0 +1,113 @@
+package com.kt.vd.Redis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompactRedisSerializerTest {
+
+    private static List<Map<String, Object>> value(int size){
+        List<Map<String, Object>> value = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("drink_type", "drink-" + i);
+            data.put("sell", i);
+            value.add(data);
+        }
+        return value;
+    }
+
+    private static int payloadLength(Object value) throws Exception {
+        return new ObjectMapper(new SmileFactory()).writeValueAsBytes(value).length;
+    }
+
+
+    @Test
+    public void roundTripsSmallValue(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+        List<Map<String, Object>> value = value(3);
+
+        byte[] bytes = serializer.serialize(value);
+
+        assertEquals(CompactRedisSerializer.magic, bytes[0]);
+        assertEquals(CompactRedisSerializer.version, bytes[1]);
+        assertEquals(0, bytes[2]);
+        assertEquals(value, serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void roundTripsCompressedValue(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(64);
+        List<Map<String, Object>> value = value(200);
+
+        byte[] bytes = serializer.serialize(value);
+
+        assertEquals(CompactRedisSerializer.deflated, bytes[2]);
+        assertEquals(value, serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void compressesFromTheThreshold() throws Exception {
+        List<Map<String, Object>> value = value(10);
+        int length = payloadLength(value);
+
+        byte[] atThreshold = new CompactRedisSerializer(length).serialize(value);
+        byte[] belowThreshold = new CompactRedisSerializer(length + 1).serialize(value);
+
+        assertEquals(CompactRedisSerializer.deflated, atThreshold[2]);
+        assertEquals(0, belowThreshold[2]);
+        assertEquals(length + CompactRedisSerializer.headerLength, belowThreshold.length);
+        assertEquals(value, new CompactRedisSerializer(length).deserialize(atThreshold));
+        assertEquals(value, new CompactRedisSerializer(length + 1).deserialize(belowThreshold));
+    }
+
+    @Test
+    public void roundTripsScalars(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+
+        assertEquals(42, serializer.deserialize(serializer.serialize(42)));
+        assertEquals("value", serializer.deserialize(serializer.serialize("value")));
+    }
+
+    @Test
+    public void nullAndEmpty(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+
+        assertEquals(0, serializer.serialize(null).length);
+        assertNull(serializer.deserialize(null));
+        assertNull(serializer.deserialize(new byte[0]));
+    }
+
+    @Test
+    public void readsLegacyJson(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+        List<Map<String, Object>> value = value(3);
+
+        byte[] legacy = new GenericJackson2JsonRedisSerializer().serialize(value);
+
+        assertNotEquals(CompactRedisSerializer.magic, legacy[0]);
+        assertEquals(value, serializer.deserialize(legacy));
+    }
+
+    @Test
+    public void unknownVersionIsAMiss(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+        byte[] bytes = serializer.serialize(value(3));
+        bytes[1] = (byte) (CompactRedisSerializer.version + 1);
+
+        assertNull(serializer.deserialize(bytes));
+    }
+
+    @Test
+    public void truncatedHeaderIsAMiss(){
+        CompactRedisSerializer serializer = new CompactRedisSerializer(1024);
+
+        assertNull(serializer.deserialize(new byte[]{CompactRedisSerializer.magic}));
+        assertNull(serializer.deserialize(new byte[]{CompactRedisSerializer.magic, CompactRedisSerializer.version}));
+    }
+}
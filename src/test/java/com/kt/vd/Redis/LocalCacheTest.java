@@ -0,0 +1,107 @@
+package com.kt.vd.Redis;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class LocalCacheTest {
+
+    private LocalCache localCache;
+
+
+    @Before
+    public void setUp(){
+        localCache = new LocalCache();
+        localCache.stringRedisTemplate = mock(StringRedisTemplate.class);
+        localCache.listenerContainer = mock(RedisMessageListenerContainer.class);
+        localCache.meterRegistry = new SimpleMeterRegistry();
+        localCache.enabled = true;
+        localCache.maximumWeight = 1 << 20;
+        localCache.defaultTtl = 60;
+        localCache.ttls = new String[0];
+        localCache.init();
+    }
+
+    private static DefaultMessage message(String body){
+        return new DefaultMessage(LocalCache.invalidationTopic.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String published(){
+        ArgumentCaptor<Object> body = ArgumentCaptor.forClass(Object.class);
+        verify(localCache.stringRedisTemplate, atLeastOnce()).convertAndSend(eq(LocalCache.invalidationTopic), body.capture());
+        return (String) body.getValue();
+    }
+
+
+    @Test
+    public void putLocalDoesNotPublish(){
+        localCache.putLocal("sell:user1", "value");
+
+        assertEquals("value", localCache.get("sell:user1"));
+        verifyZeroInteractions(localCache.stringRedisTemplate);
+    }
+
+    @Test
+    public void putPublishesTheKey(){
+        localCache.put("sell:user1", "value");
+
+        assertEquals("value", localCache.get("sell:user1"));
+        assertTrue(published().endsWith("|sell:user1"));
+    }
+
+    @Test
+    public void evictRemovesAndPublishesTheKey(){
+        localCache.putLocal("sell:user1", "value");
+
+        localCache.evict("sell:user1");
+
+        assertNull(localCache.get("sell:user1"));
+        assertTrue(published().endsWith("|sell:user1"));
+    }
+
+    @Test
+    public void messageFromAnotherInstanceInvalidates(){
+        localCache.putLocal("sell:user1", "value");
+        localCache.putLocal("sell:user2", "value");
+
+        localCache.onMessage(message("other-instance|sell:user1"), null);
+
+        assertNull(localCache.get("sell:user1"));
+        assertEquals("value", localCache.get("sell:user2"));
+    }
+
+    @Test
+    public void ownMessageIsIgnored(){
+        localCache.put("sell:user1", "value");
+
+        localCache.onMessage(message(published()), null);
+
+        assertEquals("value", localCache.get("sell:user1"));
+    }
+
+    @Test
+    public void malformedMessageIsIgnored(){
+        localCache.putLocal("sell:user1", "value");
+
+        localCache.onMessage(message("sell:user1"), null);
+
+        assertEquals("value", localCache.get("sell:user1"));
+    }
+
+    @Test
+    public void nullValuesAreNotCached(){
+        localCache.putLocal("sell:user1", null);
+
+        assertNull(localCache.get("sell:user1"));
+    }
+}
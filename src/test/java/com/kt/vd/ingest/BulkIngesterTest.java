@@ -0,0 +1,162 @@
+package com.kt.vd.ingest;
+
+import com.kt.vd.ElasticSearch.IndexManager;
+import com.kt.vd.ElasticSearch.LateDocuments;
+import com.kt.vd.ElasticSearch.QueryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BulkIngesterTest {
+
+    private BulkIngester bulkIngester;
+    private final List<String> stored = Collections.synchronizedList(new ArrayList<>());
+
+
+    @Before
+    public void setUp(){
+        bulkIngester = new BulkIngester();
+        bulkIngester.queryExecutor = mock(QueryExecutor.class);
+        bulkIngester.indexManager = mock(IndexManager.class);
+        bulkIngester.writeAheadBuffer = mock(WriteAheadBuffer.class);
+        bulkIngester.lateDocuments = mock(LateDocuments.class);
+        bulkIngester.meterRegistry = new SimpleMeterRegistry();
+        bulkIngester.enabled = true;
+        bulkIngester.queueCapacity = 2;
+        bulkIngester.bulkActions = 10;
+        bulkIngester.bulkSize = 1 << 20;
+        bulkIngester.flushInterval = 50;
+        bulkIngester.concurrentRequests = 1;
+        bulkIngester.maxRetries = 3;
+        bulkIngester.retryBackoff = 10;
+        bulkIngester.probeInterval = 1000;
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        bulkIngester.shutdown();
+    }
+
+    private static IndexRequest request(String id){
+        return new IndexRequest("sell-2018-01-01", "log").id(id).source(Collections.singletonMap("user", "user1"));
+    }
+
+    private static List<IndexRequest> requests(String... ids){
+        List<IndexRequest> requests = new ArrayList<>();
+        for (String id : ids)
+            requests.add(request(id));
+        return requests;
+    }
+
+    private boolean offer(List<IndexRequest> requests){
+        return bulkIngester.offer(requests, indexed -> indexed.forEach(request -> stored.add(request.id())));
+    }
+
+    private static BulkItemResponse item(RestStatus status){
+        BulkItemResponse item = mock(BulkItemResponse.class);
+        when(item.isFailed()).thenReturn(status != RestStatus.OK);
+        when(item.status()).thenReturn(status);
+        when(item.getIndex()).thenReturn("sell-2018-01-01");
+        when(item.getFailureMessage()).thenReturn(status.name());
+        return item;
+    }
+
+    private static CompletableFuture<BulkResponse> response(RestStatus... statuses){
+        BulkItemResponse[] items = new BulkItemResponse[statuses.length];
+        for (int i = 0; i < statuses.length; i++)
+            items[i] = item(statuses[i]);
+        BulkResponse response = mock(BulkResponse.class);
+        when(response.getItems()).thenReturn(items);
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private void awaitStored(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(stored.size() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+    }
+
+
+    @Test
+    public void refusesAllDocumentsThatDoNotFit(){
+        bulkIngester.init();
+
+        assertFalse(offer(requests("a", "b", "c")));
+
+        verify(bulkIngester.queryExecutor, after(200).never()).bulk(any());
+        verify(bulkIngester.writeAheadBuffer, never()).append(any());
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void acceptsDocumentsThatFit() throws InterruptedException {
+        when(bulkIngester.queryExecutor.bulk(any())).thenReturn(response(RestStatus.OK, RestStatus.OK));
+        bulkIngester.init();
+
+        assertTrue(offer(requests("a", "b")));
+
+        awaitStored(2);
+        assertEquals(Arrays.asList("a", "b"), stored);
+        verify(bulkIngester.queryExecutor, times(1)).bulk(any());
+    }
+
+    @Test
+    public void retriesRejectedDocuments() throws InterruptedException {
+        when(bulkIngester.queryExecutor.bulk(any()))
+                .thenReturn(response(RestStatus.TOO_MANY_REQUESTS, RestStatus.OK))
+                .thenReturn(response(RestStatus.OK));
+        bulkIngester.init();
+
+        assertTrue(offer(requests("a", "b")));
+
+        awaitStored(2);
+        assertEquals(Arrays.asList("b", "a"), stored);
+
+        ArgumentCaptor<BulkRequest> bulks = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(bulkIngester.queryExecutor, times(2)).bulk(bulks.capture());
+        assertEquals(2, bulks.getAllValues().get(0).numberOfActions());
+        assertEquals(1, bulks.getAllValues().get(1).numberOfActions());
+        assertEquals("a", ((IndexRequest) bulks.getAllValues().get(1).requests().get(0)).id());
+    }
+
+    @Test
+    public void dropsFailedDocumentsWithoutRetry() throws InterruptedException {
+        when(bulkIngester.queryExecutor.bulk(any())).thenReturn(response(RestStatus.BAD_REQUEST, RestStatus.OK));
+        bulkIngester.init();
+
+        assertTrue(offer(requests("a", "b")));
+
+        awaitStored(1);
+        verify(bulkIngester.queryExecutor, after(200).times(1)).bulk(any());
+        assertEquals(Collections.singletonList("b"), stored);
+    }
+
+    @Test
+    public void reportsBufferedDocumentsAsStored() throws InterruptedException {
+        CompletableFuture<BulkResponse> unreachable = new CompletableFuture<>();
+        unreachable.completeExceptionally(new IllegalStateException("unreachable"));
+        when(bulkIngester.queryExecutor.bulk(any())).thenReturn(unreachable);
+        when(bulkIngester.writeAheadBuffer.append(any())).thenReturn(true);
+        bulkIngester.init();
+
+        assertTrue(offer(requests("a")));
+
+        awaitStored(1);
+        assertEquals(Collections.singletonList("a"), stored);
+        verify(bulkIngester.writeAheadBuffer).append(any());
+    }
+}
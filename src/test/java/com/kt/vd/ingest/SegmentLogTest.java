@@ -0,0 +1,187 @@
+package com.kt.vd.ingest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<byte[]> payloads(int count, int length){
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] payload = new byte[length];
+            Arrays.fill(payload, (byte) ('a' + i % 26));
+            payloads.add(payload);
+        }
+        return payloads;
+    }
+
+    private static List<String> strings(List<byte[]> payloads){
+        return payloads.stream().map(payload -> new String(payload, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    /**
+     * Every record, segment by segment as the replay reads them, deleting each segment after it
+     */
+    private static List<byte[]> drain(SegmentLog log) throws IOException {
+        List<byte[]> all = new ArrayList<>();
+        for (Path segment = log.oldest(); segment != null; segment = log.oldest()) {
+            List<byte[]> payloads = log.read(segment);
+            long bytes = 0;
+            for (byte[] payload : payloads)
+                bytes += SegmentLog.headerSize + payload.length;
+            all.addAll(payloads);
+            log.delete(segment, payloads.size(), bytes);
+        }
+        return all;
+    }
+
+    private List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+
+    @Test
+    public void recordFormat() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        SegmentLog log = new SegmentLog(directory, 1024, false);
+        byte[] payload = "document".getBytes(StandardCharsets.UTF_8);
+
+        log.append(Arrays.asList(payload));
+        Path segment = log.oldest();
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        assertEquals(1024, buffer.capacity());
+        assertEquals(payload.length, buffer.getInt());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        assertEquals((int) crc.getValue(), buffer.getInt());
+        byte[] stored = new byte[payload.length];
+        buffer.get(stored);
+        assertArrayEquals(payload, stored);
+        assertEquals(0, buffer.getInt());
+        assertEquals("00000000000000000000.seg", segment.getFileName().toString());
+    }
+
+    @Test
+    public void readsInAppendOrder() throws IOException {
+        SegmentLog log = new SegmentLog(folder.newFolder().toPath(), 1024, false);
+        List<byte[]> payloads = payloads(5, 10);
+
+        log.append(payloads.subList(0, 2));
+        log.append(payloads.subList(2, 5));
+
+        assertEquals(5, log.records());
+        assertEquals(5 * (SegmentLog.headerSize + 10), log.bytes());
+        assertEquals(strings(payloads), strings(drain(log)));
+        assertEquals(0, log.records());
+        assertEquals(0, log.bytes());
+        assertNull(log.oldest());
+    }
+
+    @Test
+    public void rollsToNewSegmentsInOrder() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        // two records of 20 bytes per segment
+        SegmentLog log = new SegmentLog(directory, 2 * (SegmentLog.headerSize + 20) + 4, false);
+        List<byte[]> payloads = payloads(5, 20);
+
+        log.append(payloads);
+
+        assertEquals(3, segments(directory).size());
+        assertEquals(strings(payloads), strings(drain(log)));
+        assertTrue(segments(directory).isEmpty());
+    }
+
+    @Test
+    public void reopenKeepsRecordsForReplay() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<byte[]> payloads = payloads(5, 20);
+
+        SegmentLog log = new SegmentLog(directory, 2 * (SegmentLog.headerSize + 20), false);
+        log.append(payloads.subList(0, 3));
+        log.close();
+
+        SegmentLog reopened = new SegmentLog(directory, 2 * (SegmentLog.headerSize + 20), false);
+        assertEquals(3, reopened.records());
+        assertEquals(3 * (SegmentLog.headerSize + 20), reopened.bytes());
+
+        reopened.append(payloads.subList(3, 5));
+        assertEquals(5, reopened.records());
+        assertEquals(strings(payloads), strings(drain(reopened)));
+    }
+
+    @Test
+    public void corruptedRecordEndsTheSegment() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<byte[]> payloads = payloads(3, 10);
+
+        SegmentLog log = new SegmentLog(directory, 1024, false);
+        log.append(payloads);
+        log.close();
+
+        Path segment = segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'#'}), 2 * (SegmentLog.headerSize + 10) + SegmentLog.headerSize + 3);
+        }
+
+        SegmentLog reopened = new SegmentLog(directory, 1024, false);
+        assertEquals(2, reopened.records());
+        assertEquals(strings(payloads.subList(0, 2)), strings(reopened.read(segment)));
+    }
+
+    @Test
+    public void truncatedRecordEndsTheSegment() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        List<byte[]> payloads = payloads(3, 10);
+
+        SegmentLog log = new SegmentLog(directory, 1024, false);
+        log.append(payloads);
+        log.close();
+
+        Path segment = segments(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(2 * (SegmentLog.headerSize + 10) + SegmentLog.headerSize + 5);
+        }
+
+        SegmentLog reopened = new SegmentLog(directory, 1024, false);
+        assertEquals(2, reopened.records());
+        assertEquals(strings(payloads.subList(0, 2)), strings(reopened.read(segment)));
+    }
+
+    @Test
+    public void emptyDirectoryHasNothingToReplay() throws IOException {
+        SegmentLog log = new SegmentLog(folder.newFolder().toPath(), 1024, false);
+
+        assertEquals(0, log.records());
+        assertNull(log.oldest());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRecordLargerThanSegment() throws IOException {
+        SegmentLog log = new SegmentLog(folder.newFolder().toPath(), 64, false);
+
+        log.append(payloads(1, 64 - SegmentLog.headerSize + 1));
+    }
+}
@@ -0,0 +1,86 @@
+package com.kt.vd.result;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TermCountTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+
+    @Test
+    public void readsLikeAMap(){
+        TermCount termCount = new TermCount("drink_type", "sell", "coke", 12);
+
+        assertEquals("coke", termCount.get("drink_type"));
+        assertEquals(12L, termCount.get("sell"));
+        assertNull(termCount.get("visit"));
+        assertTrue(termCount.containsKey("sell"));
+        assertFalse(termCount.containsKey("visit"));
+        assertEquals(2, termCount.size());
+    }
+
+    @Test
+    public void equalsThePlainMapReadBackFromRedis(){
+        Map<String, Object> plain = new HashMap<>();
+        plain.put("drink_type", "coke");
+        plain.put("sell", 12L);
+
+        TermCount termCount = new TermCount("drink_type", "sell", "coke", 12);
+
+        assertEquals(plain, termCount);
+        assertEquals(plain.hashCode(), termCount.hashCode());
+    }
+
+    @Test
+    public void entriesKeepKeyThenCount(){
+        TermCount termCount = new TermCount("drink_type", "sell", "coke", 12);
+
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : termCount.entrySet())
+            names.add(entry.getKey());
+
+        assertEquals(Arrays.asList("drink_type", "sell"), names);
+    }
+
+    @Test
+    public void fromEntriesKeepsOrder(){
+        List<Map.Entry<Object, Long>> entries = Arrays.asList(
+                new AbstractMap.SimpleImmutableEntry<>("coke", 5L),
+                new AbstractMap.SimpleImmutableEntry<>("cider", 2L));
+
+        List<Map<String, Object>> counts = TermCount.fromEntries("drink_type", "sell", entries);
+
+        assertEquals(2, counts.size());
+        assertEquals("coke", counts.get(0).get("drink_type"));
+        assertEquals(5L, counts.get(0).get("sell"));
+        assertEquals("cider", counts.get(1).get("drink_type"));
+    }
+
+    @Test
+    public void writesStringKey() throws Exception {
+        TermCount termCount = new TermCount("drink_type", "sell", "coke", 12);
+
+        assertEquals("{\"drink_type\":\"coke\",\"sell\":12}", objectMapper.writeValueAsString(termCount));
+    }
+
+    @Test
+    public void writesNumericKeyAsNumber() throws Exception {
+        assertEquals("{\"hour\":13,\"sell\":3}",
+                objectMapper.writeValueAsString(new TermCount("hour", "sell", 13L, 3)));
+        assertEquals("{\"price\":1.5,\"sell\":3}",
+                objectMapper.writeValueAsString(new TermCount("price", "sell", 1.5, 3)));
+    }
+
+    @Test
+    public void writesListsOfTermCounts() throws Exception {
+        List<Map<String, Object>> counts = TermCount.fromEntries("drink_type", "sell",
+                Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>("coke", 5L)));
+
+        assertEquals("[{\"drink_type\":\"coke\",\"sell\":5}]", objectMapper.writeValueAsString(counts));
+    }
+}
@@ -0,0 +1,77 @@
+package com.kt.vd.sensor;
+
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class SensorCursorTest {
+
+    private static String cursor(String value){
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void parsesDate(){
+        SensorCursor cursor = SensorCursor.parse("2018-07-01 10:00:00");
+
+        assertEquals(LocalDateTime.of(2018, 7, 1, 10, 0, 0), cursor.getDate());
+        assertNull(cursor.getSearchAfter());
+
+        RangeQueryBuilder range = (RangeQueryBuilder) cursor.range();
+        assertEquals("2018-07-01 10:00:00", range.from());
+        assertFalse(range.includeLower());
+    }
+
+    @Test
+    public void parsesCursor(){
+        SensorCursor cursor = SensorCursor.parse(cursor("1530439200123:temperature#AWR0"));
+
+        assertEquals(LocalDateTime.of(2018, 7, 1, 10, 0, 0, 123_000_000), cursor.getDate());
+        assertArrayEquals(new Object[]{1530439200123L, "temperature#AWR0"}, cursor.getSearchAfter());
+
+        RangeQueryBuilder range = (RangeQueryBuilder) cursor.range();
+        assertEquals("2018-07-01 10:00:00", range.from());
+        assertTrue(range.includeLower());
+    }
+
+    @Test
+    public void keepsSeparatorsInsideTheUid(){
+        SensorCursor cursor = SensorCursor.parse(cursor("1530439200123:type:with:colons"));
+
+        assertEquals("type:with:colons", cursor.getSearchAfter()[1]);
+    }
+
+    @Test
+    public void searchAfterIsACopy(){
+        SensorCursor cursor = SensorCursor.parse(cursor("1530439200123:temperature#AWR0"));
+        cursor.getSearchAfter()[1] = "changed";
+
+        assertEquals("temperature#AWR0", cursor.getSearchAfter()[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherDateFormats(){
+        SensorCursor.parse("2018-07-01T10:00:00");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBase64(){
+        SensorCursor.parse("not a cursor!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCursorWithoutSeparator(){
+        SensorCursor.parse(cursor("1530439200123"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCursorWithoutMillis(){
+        SensorCursor.parse(cursor("yesterday:temperature#AWR0"));
+    }
+}